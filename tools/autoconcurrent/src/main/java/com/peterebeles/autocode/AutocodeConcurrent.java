@@ -4,14 +4,32 @@
 
 package com.peterebeles.autocode;
 
+import com.peterabeles.JavaHeaderAnalyzer;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -30,69 +48,106 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *     <li>//CONCURRENT_MACRO NAME TEXT creates a macro that can be used instead of text</li>
  *     <li>//CONCURRENT_OMIT_BEGIN It will omit everything until it finds an OMIT_END</li>
  *     <li>//CONCURRENT_OMIT_END It will stop omitting when this is encountered.</li>
+ *     <li>//CONCURRENT_LOOP VAR LOWER UPPER will replace the line below with the start of a parallel loop</li>
+ *     <li>//CONCURRENT_LOOP_END will replace the line above with the end of a parallel loop</li>
+ *     <li>//CONCURRENT_FOR [static|cyclic|dynamic] [CHUNK] will partition the for loop below into a parallel loop</li>
+ *     <li>//CONCURRENT_REDUCE TYPE VAR OP [CHUNK] same as FOR but VAR is reduced using OP, which is +, *, min, or max</li>
  * </ul>
  *
  * A macro is identified by enclosing its name with brackets, e.g. {NAME}.
  *
+ * The code for a LOOP, FOR, or REDUCE is created by {@link #backend}, so the same source can be converted using different
+ * threading libraries without editing it.
+ *
  * @author Peter Abeles
  */
 @SuppressWarnings("NullAway")
 public class AutocodeConcurrent {
     public static String IMPORT_GENERATED = "import javax.annotation.Generated;";
 
+    /** Files which don't contain this are not converted */
+    public static String MARKER = "//CONCURRENT";
     public static String prefix = "//CONCURRENT_";
     public static String tab = "\t";
     public static String sourceRootName = "java";
     public static String pathRootToTest = "../../test/java";
     public static ConvertString originalToMT = name -> name + "_MT.java";
+    /** Creates the code for //CONCURRENT_LOOP */
+    public static ConcurrentBackend backend = ConcurrentBackend.PARALLEL_STREAM;
 
     /**
      * Converts the file from single thread into concurrent implementation
      */
     public static void convertFile(File original) throws IOException {
-        File outputFile = determineClassName(original);
+        // The file is only read once and everything else is done with the text in memory
+        String text = readFileToString(original, UTF_8);
+        File outputFile = determineClassName(original, text);
 
-        String classNameOld = className(original);
-        String classNameNew = className(outputFile);
+        String converted = convertText(text, derivePackagePath(outputFile), className(original), className(outputFile));
+        try (Writer out = Files.newBufferedWriter(outputFile.toPath(), UTF_8)) {
+            out.write(converted);
+        }
 
-        // Read the file and split it up into lines
-        List<String> inputLines = readLines(original, UTF_8);
-        List<String> outputLines = new ArrayList<>();
+        createTestIfNotThere(outputFile, sourceRootName, pathRootToTest);
+    }
 
-        List<Macro> macros = new ArrayList<>();
+    /**
+     * Applies the directives to the text of a file in a single pass through its lines
+     *
+     * @param packageName Package the output class is in
+     * @param classNameOld Name of the class in the text
+     * @param classNameNew Name of the output class
+     * @return The converted text
+     */
+    static String convertText(String text, String packageName, String classNameOld, String classNameNew) {
+        var outputLines = new OutputLines(text.length() + 200);
+
+        // Find the lines with the first import, the class, and any existing @Generated annotations
+        var header = new JavaHeaderAnalyzer();
+        header.analyze(text);
+        int importLine = header.firstImport >= 0 ? header.lineOf(header.firstImport) : -1;
+        int classLine = header.typeKeyword >= 0 ? header.lineOf(header.typeKeyword) : -1;
+        List<Integer> generatedLines = new ArrayList<>();
+        for (int offset : header.generatedAnnotations) {
+            generatedLines.add(header.lineOf(offset));
+        }
+
+        var macros = new Macros();
+        String constructorOld = classNameOld + "(";
+        String constructorNew = classNameNew + "(";
 
         // If an import statement has been found
         boolean foundImport = false;
 
         // parse each line by line looking for instructions
-        boolean foundClassDef = false;
         // If true it will not copy lines over
         boolean omit = false;
-        for (int i = 0; i < inputLines.size(); i++) {
-            String line = inputLines.get(i);
+        // Variable of each LOOP which hasn't been ended yet. The innermost is last
+        List<String> openLoops = new ArrayList<>();
+        var lines = new LineCursor(text);
+        while (lines.hasNext()) {
+            String line = lines.next();
+            int i = lines.index();
             int where = line.indexOf(prefix);
             if (where < 0) {
-                if (!foundImport && !foundClassDef && line.startsWith("import")) {
+                if (i == importLine) {
                     foundImport = true;
                     // Don't add the import twice
-                    if (!containsStartsWith(IMPORT_GENERATED, inputLines))
+                    if (header.generatedImport < 0)
                         outputLines.add(IMPORT_GENERATED);
-                } else if (!foundClassDef && line.contains("class " + classNameOld)) {
-                    foundClassDef = true;
+                } else if (i == classLine) {
                     if (foundImport)
-                        outputLines.add("@Generated(\"" + derivePackagePath(outputFile) + "." + classNameOld + "\")");
-                    line = line.replaceFirst("class " + classNameOld, "class " + classNameNew);
-                } else if (foundImport && line.startsWith("@Generated")) {
+                        outputLines.add("@Generated(\"" + packageName + "." + classNameOld + "\")");
+                    line = line.replaceFirst(header.typeKind + " " + classNameOld, header.typeKind + " " + classNameNew);
+                } else if (foundImport && generatedLines.contains(i)) {
                     // If the file already has a generated statement and we are going to add our own remove the old one
                     continue;
-                } else {
-                    line = line.replace(classNameOld + "(", classNameNew + "(");
+                } else if (line.contains(constructorOld)) {
+                    line = line.replace(constructorOld, constructorNew);
                 }
                 if (omit)
                     continue;
-                for (Macro m : macros)
-                    line = line.replace(m.name, m.text);
-                outputLines.add(line);
+                outputLines.add(macros.expand(line));
                 continue;
             }
             String type = readType(line, where + prefix.length());
@@ -107,18 +162,18 @@ public class AutocodeConcurrent {
                     break;
                 case "ABOVE":
                     // remove the previous line
-                    outputLines.remove(outputLines.size() - 1);
+                    outputLines.removeLast();
                     outputLines.add(whitespaces + message);
                     break;
                 case "BELOW":
                     outputLines.add(whitespaces + message);
-                    i += 1; // skip next line
+                    lines.skip(); // skip next line
                     break;
                 case "REMOVE_ABOVE":
-                    outputLines.remove(outputLines.size() - 1);
+                    outputLines.removeLast();
                     break;
                 case "REMOVE_BELOW":
-                    i += 1; // skip next line
+                    lines.skip(); // skip next line
                     break;
                 case "REMOVE_LINE":
                     break;
@@ -132,24 +187,47 @@ public class AutocodeConcurrent {
                     String[] words = message.split(" ");
                     if (words.length != 2)
                         throw new RuntimeException("Expected only two words for the macro. " + message);
-                    Macro m = new Macro();
-                    m.name = words[0];
-                    m.text = words[1];
-                    macros.add(m);
+                    macros.add(words[0], words[1]);
+                    break;
+                }
+                case "LOOP": {
+                    // The upper bound is everything after the lower bound so it can be an expression with spaces
+                    String[] words = macros.expand(message).trim().split("\\s+", 3);
+                    if (words.length != 3)
+                        throw new RuntimeException("Expected the variable, lower, and upper bound. " + message);
+                    outputLines.add(whitespaces + backend.loopBegin(words[0], words[1], words[2]));
+                    openLoops.add(words[0]);
+                    lines.skip(); // skip the sequential for loop
+                    break;
+                }
+                case "LOOP_END":
+                    if (openLoops.isEmpty())
+                        throw new RuntimeException("LOOP_END without a LOOP. Line " + (i + 1));
+                    outputLines.removeLast();
+                    outputLines.add(whitespaces + backend.loopEnd(openLoops.remove(openLoops.size() - 1)));
+                    break;
+                case "FOR":
+                case "REDUCE": {
+                    if (outputLines.loop != null)
+                        throw new RuntimeException(type + " can't be inside of another parallel loop. Line " + (i + 1));
+                    if (!lines.hasNext())
+                        throw new RuntimeException(type + " must be followed by a for loop. Line " + (i + 1));
+                    String forLine = macros.expand(lines.next());
+                    if (type.equals("FOR"))
+                        outputLines.beginLoop(ParallelFor.parseFor(macros.expand(message), forLine, backend));
+                    else
+                        outputLines.beginLoop(ParallelFor.parseReduce(macros.expand(message), forLine, backend));
                     break;
                 }
                 default:
                     throw new RuntimeException("Unknown: " + type);
             }
         }
-
-        PrintStream out = new PrintStream(outputFile);
-        for (int i = 0; i < outputLines.size(); i++) {
-            out.println(outputLines.get(i));
-        }
-        out.close();
-
-        createTestIfNotThere(outputFile, sourceRootName, pathRootToTest);
+        if (outputLines.loop != null)
+            throw new RuntimeException("Couldn't find the end of the for loop after FOR or REDUCE");
+        if (!openLoops.isEmpty())
+            throw new RuntimeException("Couldn't find the LOOP_END for LOOP " + openLoops.get(openLoops.size() - 1));
+        return outputLines.toString();
     }
 
     /**
@@ -187,7 +265,8 @@ public class AutocodeConcurrent {
     private static void createTestFile(File path) {
 
         if (!path.getParentFile().exists()) {
-            if (!path.getParentFile().mkdirs())
+            // Another thread might have created it at the same time
+            if (!path.getParentFile().mkdirs() && !path.getParentFile().isDirectory())
                 throw new RuntimeException("Failed to create directories. " + path.getAbsolutePath());
         }
         System.out.println("Creating " + path);
@@ -243,14 +322,14 @@ public class AutocodeConcurrent {
      * @param original Input file
      * @return Output file
      */
-    private static File determineClassName(File original) throws IOException {
-        String text = readFileToString(original, Charset.forName("UTF-8"));
-
-        if (!text.contains("//CONCURRENT"))
+    private static File determineClassName(File original, String text) throws IOException {
+        int marker = text.indexOf(MARKER);
+        if (marker < 0)
             throw new IOException("Not a concurrent file");
 
+        // The class name directive can't come before the first marker
         String pattern = "//CONCURRENT_CLASS_NAME ";
-        int where = text.indexOf(pattern);
+        int where = text.indexOf(pattern, marker);
         if (where < 0) {
             String name = originalToMT.convert(className(original));
             return new File(original.getParent(), name);
@@ -295,27 +374,582 @@ public class AutocodeConcurrent {
         return n.substring(0, n.length() - 5);
     }
 
-    private static class Macro {
-        String name;
-        String text;
+    /**
+     * Goes through the lines in the text one at a time without splitting it up first. Lines are split the same
+     * way as {@link String#lines()}.
+     */
+    private static class LineCursor {
+        final String text;
+        // Start of the next line
+        int position = 0;
+        // Index of the line returned by the last call to next()
+        int index = -1;
+
+        LineCursor(String text) {
+            this.text = text;
+        }
+
+        boolean hasNext() {
+            return position < text.length();
+        }
+
+        String next() {
+            int end = position;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r')
+                end++;
+            String line = text.substring(position, end);
+            if (end < text.length() && text.charAt(end) == '\r' && end + 1 < text.length() && text.charAt(end + 1) == '\n')
+                end++;
+            position = Math.min(end + 1, text.length());
+            index++;
+            return line;
+        }
+
+        /** Skips over the next line, if there is one */
+        void skip() {
+            if (hasNext())
+                next();
+        }
+
+        int index() {
+            return index;
+        }
     }
 
-    public static void convertDir( File directory, String include, String exclude ) {
+    /**
+     * Output lines stored in a single buffer. The most recent lines can be removed, which is needed by
+     * the directives which modify the line above. Every line which is written inside of a FOR or REDUCE goes
+     * through the loop, including the ones created by directives, so the brace which closes it can be found.
+     */
+    private static class OutputLines {
+        final StringBuilder buffer;
+        // Where each line starts in the buffer
+        int[] starts = new int[64];
+        int size = 0;
+        // The for loop which is being converted into a parallel loop. null if not inside of one
+        ParallelFor loop;
+        // Index of the line which closed the last parallel loop
+        int loopClosedAt = -1;
+
+        OutputLines(int capacity) {
+            buffer = new StringBuilder(capacity);
+        }
+
+        /** Adds the first line of a parallel loop. The lines after it are inside the loop until it's closed */
+        void beginLoop(ParallelFor loop) {
+            add(loop.begin);
+            this.loop = loop;
+        }
+
+        void add(String line) {
+            if (loop != null) {
+                line = loop.update(line);
+                if (loop.isClosed()) {
+                    loop = null;
+                    loopClosedAt = size;
+                }
+            }
+            if (size == starts.length)
+                starts = Arrays.copyOf(starts, size*2);
+            starts[size++] = buffer.length();
+            buffer.append(line).append(System.lineSeparator());
+        }
+
+        void removeLast() {
+            if (size == 0)
+                throw new RuntimeException("There is no line above to remove");
+            if (size - 1 == loopClosedAt)
+                throw new RuntimeException("The line which closes a FOR or REDUCE can't be removed");
+            if (loop != null)
+                loop.undo();
+            buffer.setLength(starts[--size]);
+        }
+
+        @Override public String toString() {
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Converts a sequential for loop into a parallel loop. The range is split into partitions, which are
+     * assigned to the tasks created by the backend using one of these schedules:
+     *
+     * <ul>
+     *     <li>static: Each task gets one contiguous block, or if a chunk size is given the range is split into
+     *     blocks of that size and each is a task.</li>
+     *     <li>cyclic: Chunks are dealt out to the tasks in a round robin. Default chunk size is 1.</li>
+     *     <li>dynamic: Tasks take the next chunk from a shared counter until there are none left, so a task
+     *     which finishes early does more of the work. Default chunk size is 1.</li>
+     * </ul>
+     *
+     * If it's a reduction then each static block accumulates into its own variable, which is saved into a
+     * padded array when the block is done. The blocks are then combined in order after the parallel loop
+     * finishes, so the result doesn't depend on which thread finished first.
+     *
+     * The bounds and chunk size are only evaluated once. The closing brace of the loop is found by counting braces
+     * in the lines which are written after it, including the lines created by other directives.
+     */
+    private static class ParallelFor {
+        /** for (int VAR = LOWER; VAR < UPPER; VAR++) { */
+        static final Pattern FOR_LOOP = Pattern.compile("^(\\s*)for\\s*\\(\\s*int\\s+(\\w+)\\s*=\\s*(.+?)\\s*;" +
+                "\\s*\\2\\s*<\\s*(.+?)\\s*;\\s*(?:\\2\\s*\\+\\+|\\+\\+\\s*\\2|\\2\\s*\\+=\\s*1)\\s*\\)\\s*\\{\\s*$");
+
+        /** Replaces the line with the for loop */
+        final String begin;
+        /** Replaces the brace which closes the for loop */
+        final String end;
+        /** Inside the loop this variable is renamed to the accumulator of the block. null if not a reduction */
+        String reduced;
+        String accumulator;
+
+        // Number of braces which have been opened since the start of the loop and not closed
+        int depth = 1;
+        // If the end of the last line was inside of a block comment
+        boolean blockComment = false;
+        // Depth and block comment before each line in the loop, so a line can be removed
+        final List<int[]> previous = new ArrayList<>();
+
+        /**
+         * Parses the arguments of a FOR directive: [static|cyclic|dynamic] [CHUNK]
+         */
+        static ParallelFor parseFor(String message, String forLine, ConcurrentBackend backend) {
+            String[] words = message.trim().split("\\s+", 2);
+            String schedule = "static";
+            String chunk = null;
+            if (words[0].equals("static") || words[0].equals("cyclic") || words[0].equals("dynamic")) {
+                schedule = words[0];
+                if (words.length > 1)
+                    chunk = words[1];
+            } else if (!words[0].isEmpty()) {
+                chunk = message.trim();
+            }
+            return new ParallelFor(schedule, chunk, null, forLine, backend);
+        }
+
+        /**
+         * Parses the arguments of a REDUCE directive: TYPE VAR OP [CHUNK]
+         */
+        static ParallelFor parseReduce(String message, String forLine, ConcurrentBackend backend) {
+            String[] words = message.trim().split("\\s+", 4);
+            if (words.length < 3)
+                throw new RuntimeException("Expected the type, variable, and operator. " + message);
+            var reduction = new Reduction(words[0], words[1], words[2]);
+            return new ParallelFor("static", words.length > 3 ? words[3] : null, reduction, forLine, backend);
+        }
+
+        ParallelFor(String schedule, String chunk, Reduction reduction, String forLine, ConcurrentBackend backend) {
+            Matcher m = FOR_LOOP.matcher(forLine);
+            if (!m.matches())
+                throw new RuntimeException("Only 'for (int i = A; i < B; i++) {' can be made parallel. Found: " + forLine);
+            String var = m.group(2);
+
+            // Local variables are given names which won't conflict with the code in the loop
+            String lower = var + "_lower__";
+            String upper = var + "_upper__";
+            String size = var + "_chunk__";
+            String tasks = var + "_tasks__";
+            String task = var + "_task__";
+            String block = var + "_block__";
+            String blockEnd = var + "_end__";
+
+            var b = new StringBuilder(m.group(1));
+            b.append("{ final int ").append(lower).append(" = ").append(m.group(3)).append(", ")
+                    .append(upper).append(" = ").append(m.group(4)).append("; ");
+            String close;
+            if (schedule.equals("static") && chunk == null) {
+                // One block for each thread
+                b.append("final int ").append(tasks).append(" = Math.max(1, (int)Math.min((long)").append(upper)
+                        .append(" - ").append(lower).append(", ").append(backend.threads()).append(")); ");
+                String partials = reduction == null ? "" : reduction.declarePartials(tasks);
+                b.append(partials).append(backend.loopBegin(task, "0", tasks)).append(" ");
+                b.append("final int ").append(block).append(" = ").append(lower).append(" + (int)(((long)")
+                        .append(upper).append(" - ").append(lower).append(")*").append(task).append("/")
+                        .append(tasks).append("), ").append(blockEnd).append(" = ").append(lower)
+                        .append(" + (int)(((long)").append(upper).append(" - ").append(lower).append(")*(")
+                        .append(task).append(" + 1)/").append(tasks).append("); ");
+                close = "}";
+            } else {
+                b.append("final int ").append(size).append(" = Math.max(1, ")
+                        .append(chunk == null ? "1" : chunk).append("); ");
+                // Number of chunks the range is split into
+                String chunks = "(int)Math.max(0, ((long)" + upper + " - " + lower + " + " + size + " - 1)/" + size + ")";
+                switch (schedule) {
+                    case "static": {
+                        b.append("final int ").append(tasks).append(" = ").append(chunks).append("; ");
+                        String partials = reduction == null ? "" : reduction.declarePartials(tasks);
+                        b.append(partials).append(backend.loopBegin(task, "0", tasks)).append(" ");
+                        b.append("final long ").append(block).append(" = ").append(lower).append(" + (long)")
+                                .append(task).append("*").append(size).append("; ");
+                        close = "}";
+                    } break;
+                    case "cyclic":
+                        b.append("final int ").append(tasks).append(" = Math.min(").append(chunks).append(", ")
+                                .append(backend.threads()).append("); ");
+                        b.append(backend.loopBegin(task, "0", tasks)).append(" ");
+                        b.append("for (long ").append(block).append(" = ").append(lower).append(" + (long)")
+                                .append(task).append("*").append(size).append("; ").append(block).append(" < ")
+                                .append(upper).append("; ").append(block).append(" += (long)").append(tasks)
+                                .append("*").append(size).append(") { ");
+                        close = "}}";
+                        break;
+                    default: {
+                        String next = var + "_next__";
+                        b.append("final java.util.concurrent.atomic.AtomicLong ").append(next)
+                                .append(" = new java.util.concurrent.atomic.AtomicLong(").append(lower).append("); ");
+                        b.append("final int ").append(tasks).append(" = Math.min(").append(chunks).append(", ")
+                                .append(backend.threads()).append("); ");
+                        b.append(backend.loopBegin(task, "0", tasks)).append(" ");
+                        b.append("for (long ").append(block).append("; (").append(block).append(" = ")
+                                .append(next).append(".getAndAdd(").append(size).append(")) < ").append(upper)
+                                .append(";) { ");
+                        close = "}}";
+                    } break;
+                }
+                b.append("final int ").append(blockEnd).append(" = (int)Math.min(").append(upper).append(", ")
+                        .append(block).append(" + ").append(size).append("); ");
+            }
+
+            if (reduction == null) {
+                end = close + " " + backend.loopEnd(task) + " }";
+            } else {
+                reduced = reduction.variable;
+                accumulator = reduction.variable + "_partial__";
+                b.append(reduction.type).append(" ").append(accumulator).append(" = ").append(reduction.identity())
+                        .append("; ");
+                // Reductions are always static so only the loop over the block needs to be closed
+                end = close + " " + reduction.savePartial(task) + " " + backend.loopEnd(task) + " " +
+                        reduction.combine(tasks) + " }";
+            }
+            b.append("for (int ").append(var).append(" = (int)").append(block)
+                    .append("; ").append(var).append(" < ").append(blockEnd).append("; ").append(var).append("++) {");
+            begin = b.toString();
+        }
+
+        /**
+         * Counts the braces in a line from inside of the loop. If the loop is closed by the line then the
+         * closing brace is replaced. If it's a reduction then the variable is renamed to the accumulator.
+         */
+        String update(String line) {
+            previous.add(new int[]{depth, blockComment ? 1 : 0});
+            var output = new StringBuilder(line.length() + 16);
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (blockComment) {
+                    if (c == '*' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                        blockComment = false;
+                        output.append(c);
+                        c = line.charAt(++i);
+                    }
+                } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                    return output.append(line, i, line.length()).toString();
+                } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '*') {
+                    blockComment = true;
+                    output.append(c);
+                    c = line.charAt(++i);
+                } else if (c == '"' || c == '\'') {
+                    // Copy the string or character literal
+                    int start = i;
+                    for (i++; i < line.length() && line.charAt(i) != c; i++) {
+                        if (line.charAt(i) == '\\')
+                            i++;
+                    }
+                    output.append(line, start, Math.min(i, line.length()));
+                    if (i >= line.length())
+                        break;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    return output.append(end).append(line, i + 1, line.length()).toString();
+                } else if (reduced != null && Character.isJavaIdentifierStart(c)) {
+                    int start = i;
+                    while (i + 1 < line.length() && Character.isJavaIdentifierPart(line.charAt(i + 1)))
+                        i++;
+                    String word = line.substring(start, i + 1);
+                    // A field with the same name, e.g. this.sum, isn't the variable
+                    boolean member = start > 0 && line.charAt(start - 1) == '.';
+                    output.append(word.equals(reduced) && !member ? accumulator : word);
+                    continue;
+                }
+                output.append(c);
+            }
+            return output.toString();
+        }
+
+        boolean isClosed() {
+            return depth == 0;
+        }
+
+        /** Goes back to before the last line was updated, since it has been removed */
+        void undo() {
+            if (previous.isEmpty())
+                throw new RuntimeException("The first line of a FOR or REDUCE can't be removed");
+            int[] state = previous.remove(previous.size() - 1);
+            depth = state[0];
+            blockComment = state[1] == 1;
+        }
+    }
+
+    /**
+     * How a variable is reduced by a REDUCE directive
+     */
+    private static class Reduction {
+        /** Size of a cache line in bytes. Partials are spaced this far apart so they don't share a line */
+        static final int CACHE_LINE = 64;
+
+        final String type;
+        final String variable;
+        final String operator;
+
+        Reduction(String type, String variable, String operator) {
+            this.type = type;
+            this.variable = variable;
+            this.operator = operator;
+            if (!type.equals("int") && !type.equals("long") && !type.equals("float") && !type.equals("double"))
+                throw new RuntimeException("REDUCE type must be int, long, float, or double. Found: " + type);
+            if (!operator.equals("+") && !operator.equals("*") && !operator.equals("min") && !operator.equals("max"))
+                throw new RuntimeException("REDUCE operator must be +, *, min, or max. Found: " + operator);
+        }
+
+        /** The value which doesn't change the result when combined with another value */
+        String identity() {
+            boolean real = type.equals("float") || type.equals("double");
+            String boxed = type.equals("int") ? "Integer" : Character.toUpperCase(type.charAt(0)) + type.substring(1);
+            switch (operator) {
+                case "+": return "0";
+                case "*": return "1";
+                case "min": return boxed + (real ? ".POSITIVE_INFINITY" : ".MAX_VALUE");
+                default: return boxed + (real ? ".NEGATIVE_INFINITY" : ".MIN_VALUE");
+            }
+        }
+
+        /** Number of elements between partials */
+        int stride() {
+            return CACHE_LINE/(type.equals("int") || type.equals("float") ? 4 : 8);
+        }
+
+        String partials() {
+            return variable + "_partials__";
+        }
+
+        /** Creates the array the partials are saved into. There's padding before the first and after the last */
+        String declarePartials(String tasks) {
+            return "final " + type + "[] " + partials() + " = new " + type + "[(" + tasks + " + 2)*" + stride() + "]; ";
+        }
+
+        String savePartial(String task) {
+            return partials() + "[(" + task + " + 1)*" + stride() + "] = " + variable + "_partial__;";
+        }
+
+        /** Combines the partials into the variable in the same order every time */
+        String combine(String tasks) {
+            String partial = partials() + "[(" + variable + "_k__ + 1)*" + stride() + "]";
+            String value;
+            switch (operator) {
+                case "+": value = variable + " + " + partial; break;
+                case "*": value = variable + "*" + partial; break;
+                default: value = "Math." + operator + "(" + variable + ", " + partial + ")"; break;
+            }
+            return "for (int " + variable + "_k__ = 0; " + variable + "_k__ < " + tasks + "; " + variable + "_k__++) " +
+                    variable + " = (" + type + ")(" + value + ");";
+        }
+    }
+
+    /**
+     * Replaces the name of every macro with its text. All the names are compiled into a single regex so that
+     * each line is only scanned once no matter how many macros there are. If names overlap the longest one is used.
+     */
+    private static class Macros {
+        final Map<String, String> macros = new HashMap<>();
+        // Matches the name of any macro. null if it needs to be compiled again
+        Pattern pattern;
+
+        void add(String name, String text) {
+            macros.put(name, text);
+            pattern = null;
+        }
+
+        String expand(String line) {
+            if (macros.isEmpty())
+                return line;
+            if (pattern == null) {
+                List<String> names = new ArrayList<>(macros.keySet());
+                names.sort(Comparator.comparingInt(String::length).reversed());
+                var regex = new StringBuilder();
+                for (String name : names) {
+                    if (regex.length() > 0)
+                        regex.append('|');
+                    regex.append(Pattern.quote(name));
+                }
+                pattern = Pattern.compile(regex.toString());
+            }
+
+            Matcher m = pattern.matcher(line);
+            if (!m.find())
+                return line;
+            var builder = new StringBuilder(line.length() + 32);
+            int last = 0;
+            do {
+                builder.append(line, last, m.start()).append(macros.get(m.group()));
+                last = m.end();
+            } while (m.find());
+            return builder.append(line, last, line.length()).toString();
+        }
+    }
+
+    /**
+     * Converts all the concurrent files in the directory. Sub directories are not searched. Files which can't be
+     * read or written are put in the report. A mistake in a directive throws an exception, since it needs to be fixed.
+     *
+     * @param include Regex which the file name must match
+     * @param exclude Regex for file names which are skipped
+     * @return Which files were converted, skipped, or failed
+     */
+    public static Report convertDir( File directory, String include, String exclude ) {
         if (!directory.isDirectory())
             throw new IllegalArgumentException("Must be a directory: '" + directory.getPath() + "'");
         File[] files = directory.listFiles();
         if (files == null)
             throw new IllegalArgumentException("No files");
+        List<File> candidates = new ArrayList<>();
         for (File f : files) {
             String name = f.getName();
-            if (!name.matches(include) || name.matches(exclude))
-                continue;
-            try {
-                convertFile(f);
-            } catch (IOException ignore) {
-//				System.out.println(name+" "+e.getMessage());
+            if (f.isFile() && name.matches(include) && !name.matches(exclude))
+                candidates.add(f);
+        }
+        return convertFiles(candidates, 1);
+    }
+
+    /**
+     * Converts all the concurrent files in the directory and every directory inside of it, skipping hidden
+     * directories. Files are converted in parallel and a file which can't be read or written doesn't stop the other
+     * files from being converted. A mistake in a directive throws an exception.
+     *
+     * @param include Regex which the file name must match
+     * @param exclude Regex for file names which are skipped
+     * @param threads Number of threads used to convert files
+     * @return Which files were converted, skipped, or failed
+     */
+    public static Report convertDirRecursive( File directory, String include, String exclude, int threads )
+            throws IOException {
+        if (!directory.isDirectory())
+            throw new IllegalArgumentException("Must be a directory: '" + directory.getPath() + "'");
+        Path root = directory.toPath();
+        List<File> candidates = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) {
+                if (!dir.equals(root) && dir.toFile().isHidden())
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && name.matches(include) && !name.matches(exclude))
+                    candidates.add(file.toFile());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Sorted so that the report is always in the same order
+        candidates.sort(Comparator.comparing(File::getPath));
+        return convertFiles(candidates, threads);
+    }
+
+    /**
+     * Converts each file which contains {@link #MARKER} and records what happened to every file. Only an
+     * IOException is recorded as a failure. Anything else, e.g. an unknown directive, is thrown.
+     */
+    private static Report convertFiles( List<File> files, int threads ) {
+        var report = new Report();
+        if (threads <= 1) {
+            for (File f : files) {
+                try {
+                    report.add(f, convertIfConcurrent(f));
+                } catch (IOException e) {
+                    report.failures.add(new Failure(f, e));
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Failed to convert " + f.getPath(), e);
+                }
+            }
+            return report;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (File f : files) {
+                futures.add(pool.submit(() -> convertIfConcurrent(f)));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    report.add(files.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IOException))
+                        throw new RuntimeException("Failed to convert " + files.get(i).getPath(), e.getCause());
+                    report.failures.add(new Failure(files.get(i), e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Converts the file if it contains the marker
+     *
+     * @return true if it was converted
+     */
+    private static boolean convertIfConcurrent( File file ) throws IOException {
+        if (!containsMarker(file))
+            return false;
+        convertFile(file);
+        return true;
+    }
+
+    /**
+     * Checks to see if the file contains {@link #MARKER} without decoding the file or splitting it into lines.
+     * Reading stops at the first match, which is normally close to the top of the file.
+     */
+    public static boolean containsMarker( File file ) throws IOException {
+        byte[] marker = MARKER.getBytes(UTF_8);
+        byte[] buffer = new byte[8*1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            // Number of bytes kept from the previous read in case the marker is split between reads
+            int kept = 0;
+            while (true) {
+                int read = in.read(buffer, kept, buffer.length - kept);
+                if (read < 0)
+                    return false;
+                int size = kept + read;
+                if (indexOf(buffer, size, marker) >= 0)
+                    return true;
+                kept = Math.min(marker.length - 1, size);
+                System.arraycopy(buffer, size - kept, buffer, 0, kept);
+            }
+        }
+    }
+
+    private static int indexOf( byte[] data, int size, byte[] target ) {
+        outer:
+        for (int i = 0; i + target.length <= size; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (data[i + j] != target[j])
+                    continue outer;
             }
+            return i;
         }
+        return -1;
+    }
+
+    /**
+     * Splits the text into lines the same way as {@link #readLines}
+     */
+    public static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        text.lines().forEach(lines::add);
+        return lines;
     }
 
     public static List<String> readLines(final File file, final Charset encoding) throws IOException {
@@ -337,6 +971,50 @@ public class AutocodeConcurrent {
         return false;
     }
 
+    /**
+     * Summary of converting multiple files
+     */
+    public static class Report {
+        /** Files which were converted */
+        public final List<File> converted = new ArrayList<>();
+        /** Files which were skipped because they didn't contain the marker */
+        public final List<File> skipped = new ArrayList<>();
+        /** Files which couldn't be read or written */
+        public final List<Failure> failures = new ArrayList<>();
+
+        void add( File file, boolean wasConverted ) {
+            if (wasConverted)
+                converted.add(file);
+            else
+                skipped.add(file);
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * Prints the number of files in each category and the reason each failure happened
+         */
+        public void print( PrintStream out ) {
+            out.println("converted=" + converted.size() + " skipped=" + skipped.size() + " failed=" + failures.size());
+            for (Failure f : failures) {
+                out.println("  " + f.file.getPath() + ": " + f.error);
+            }
+        }
+    }
+
+    /** A file which couldn't be converted and the reason why */
+    public static class Failure {
+        public final File file;
+        public final Throwable error;
+
+        public Failure( File file, Throwable error ) {
+            this.file = file;
+            this.error = error;
+        }
+    }
+
     @FunctionalInterface public interface ConvertString {
         String convert(String input);
     }
@@ -0,0 +1,151 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterebeles.autocode;
+
+/**
+ * Creates the code for a parallel loop when a //CONCURRENT_LOOP directive is encountered. This way the same
+ * annotated source can be used to generate code for different threading libraries. The loop's body is
+ * placed inside of a lambda, so it can only use variables which are effectively final. Class names are fully
+ * qualified so that no imports need to be added.
+ *
+ * <pre>
+ * //CONCURRENT_LOOP i 0 N
+ * for (int i = 0; i &lt; N; i++) {
+ *     ...
+ * }
+ * //CONCURRENT_LOOP_END
+ * </pre>
+ *
+ * @author Peter Abeles
+ */
+public interface ConcurrentBackend {
+    /** Uses a parallel stream, which runs inside the common ForkJoinPool */
+    ConcurrentBackend PARALLEL_STREAM = new ParallelStream();
+
+    /**
+     * Creates a virtual thread for each iteration. Requires Java 21 or newer. An exception thrown inside the loop is
+     * thrown again once every iteration is done.
+     */
+    ConcurrentBackend VIRTUAL_THREADS = new VirtualThreads();
+
+    /**
+     * Returns the code which replaces the line that starts the loop
+     *
+     * @param variable Name of the loop's index
+     * @param lower Expression for the first index, inclusive
+     * @param upper Expression for the last index, exclusive
+     */
+    String loopBegin(String variable, String lower, String upper);
+
+    /**
+     * Returns the code which replaces the line that ends the loop
+     *
+     * @param variable Name of the loop's index. Locals the backend declares are named after it so loops can be nested.
+     */
+    String loopEnd(String variable);
+
+    /**
+     * Returns an expression for the number of threads which will run the loop. Used to decide how many tasks
+     * the range is split into by //CONCURRENT_FOR.
+     */
+    default String threads() {
+        return "Runtime.getRuntime().availableProcessors()";
+    }
+
+    /**
+     * Uses a parallel stream which is run inside of a specific ForkJoinPool
+     *
+     * @param pool Expression for the pool, e.g. "ForkJoinPool.commonPool()" or "MyClass.pool"
+     */
+    static ConcurrentBackend forkJoin(String pool) {
+        return new ForkJoin(pool);
+    }
+
+    /**
+     * Calls a function which the project provides, e.g. "BoofConcurrency.loopFor". It must have the signature
+     * (int lower, int upper, IntConsumer body).
+     */
+    static ConcurrentBackend loopFunction(String function) {
+        return new LoopFunction(function);
+    }
+
+    /** See {@link #PARALLEL_STREAM} */
+    class ParallelStream implements ConcurrentBackend {
+        @Override public String loopBegin(String variable, String lower, String upper) {
+            return "java.util.stream.IntStream.range(" + lower + ", " + upper + ").parallel().forEach(" +
+                    variable + " -> {";
+        }
+
+        @Override public String loopEnd(String variable) {
+            return "});";
+        }
+    }
+
+    /** See {@link #forkJoin(String)} */
+    class ForkJoin implements ConcurrentBackend {
+        final String pool;
+
+        public ForkJoin(String pool) {
+            this.pool = pool;
+        }
+
+        @Override public String loopBegin(String variable, String lower, String upper) {
+            // A parallel stream uses the pool of the task it's started from
+            return pool + ".submit(() -> java.util.stream.IntStream.range(" + lower + ", " + upper +
+                    ").parallel().forEach(" + variable + " -> {";
+        }
+
+        @Override public String loopEnd(String variable) {
+            return "})).join();";
+        }
+
+        @Override public String threads() {
+            return pool + ".getParallelism()";
+        }
+    }
+
+    /** See {@link #VIRTUAL_THREADS} */
+    class VirtualThreads implements ConcurrentBackend {
+        @Override public String loopBegin(String variable, String lower, String upper) {
+            String index = variable + "__";
+            String executor = variable + "_executor__";
+            String futures = variable + "_futures__";
+            return "try (var " + executor + " = java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor()) { " +
+                    "final var " + futures + " = new java.util.ArrayList<java.util.concurrent.Future<?>>(); " +
+                    "for (int " + index + " = " + lower + "; " + index + " < " + upper + "; " + index + "++) { " +
+                    "final int " + variable + " = " + index + "; " + futures + ".add(" + executor + ".submit(() -> {";
+        }
+
+        @Override public String loopEnd(String variable) {
+            // Waits for every task so that an exception isn't lost. The executor is closed after all are done
+            String future = variable + "_future__";
+            String error = variable + "_error__";
+            return "}));} for (var " + future + " : " + variable + "_futures__) { try { " + future + ".get(); } " +
+                    "catch (InterruptedException " + error + ") { Thread.currentThread().interrupt(); " +
+                    "throw new RuntimeException(" + error + "); } " +
+                    "catch (java.util.concurrent.ExecutionException " + error + ") { " +
+                    "if (" + error + ".getCause() instanceof RuntimeException) throw (RuntimeException)" + error +
+                    ".getCause(); if (" + error + ".getCause() instanceof Error) throw (Error)" + error + ".getCause(); " +
+                    "throw new RuntimeException(" + error + ".getCause()); }}}";
+        }
+    }
+
+    /** See {@link #loopFunction(String)} */
+    class LoopFunction implements ConcurrentBackend {
+        final String function;
+
+        public LoopFunction(String function) {
+            this.function = function;
+        }
+
+        @Override public String loopBegin(String variable, String lower, String upper) {
+            return function + "(" + lower + ", " + upper + ", " + variable + " -> {";
+        }
+
+        @Override public String loopEnd(String variable) {
+            return "});";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterebeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Converts a template with {@link AutocodeConcurrent#convertText} then compiles the sequential and concurrent
+ * classes so that their results can be compared. The template is class "Foo" in package "foo" and the
+ * concurrent class is "Foo_MT". Other classes the template uses can be passed in. The compiled classes are deleted
+ * when it's closed.
+ *
+ * @author Peter Abeles
+ */
+class CompileGenerated implements AutoCloseable {
+    final File root;
+    final URLClassLoader loader;
+    final Class<?> sequential;
+    final Class<?> concurrent;
+
+    /**
+     * @param template Source code of the sequential class
+     * @param others Name and source code of other classes in the package
+     */
+    CompileGenerated( String template, Map<String, String> others ) throws IOException {
+        root = Files.createTempDirectory("autoconcurrent").toFile();
+        try {
+            Map<String, String> sources = new HashMap<>(others);
+            sources.put("Foo", template);
+            sources.put("Foo_MT", AutocodeConcurrent.convertText(template, "foo", "Foo", "Foo_MT"));
+
+            List<String> args = new ArrayList<>(List.of("-proc:none", "-d", new File(root, "classes").getPath()));
+            for (Map.Entry<String, String> e : sources.entrySet()) {
+                File file = new File(root, "src/foo/" + e.getKey() + ".java");
+                FileUtils.write(file, e.getValue(), StandardCharsets.UTF_8);
+                args.add(file.getPath());
+            }
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            var errors = new ByteArrayOutputStream();
+            int result = compiler.run(null, null, errors, args.toArray(new String[0]));
+            assertEquals(0, result, errors.toString(StandardCharsets.UTF_8) + "\n" + sources.get("Foo_MT"));
+
+            loader = new URLClassLoader(new URL[]{new File(root, "classes").toURI().toURL()});
+            sequential = loader.loadClass("foo.Foo");
+            concurrent = loader.loadClass("foo.Foo_MT");
+        } catch (IOException | RuntimeException | Error e) {
+            FileUtils.deleteDirectory(root);
+            throw e;
+        } catch (ClassNotFoundException e) {
+            FileUtils.deleteDirectory(root);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calls the static function with the same arguments in both classes. Returns the output of each.
+     */
+    Object[] call( String function, Object... arguments ) {
+        return new Object[]{call(sequential, function, arguments), call(concurrent, function, arguments)};
+    }
+
+    /**
+     * Calls the static function. If it throws an exception then the exception is returned.
+     */
+    static Object call( Class<?> type, String function, Object... arguments ) {
+        for (Method m : type.getMethods()) {
+            if (!m.getName().equals(function))
+                continue;
+            try {
+                return m.invoke(null, arguments);
+            } catch (InvocationTargetException e) {
+                return e.getCause();
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalArgumentException("No function " + function);
+    }
+
+    @Override public void close() throws IOException {
+        loader.close();
+        FileUtils.deleteDirectory(root);
+    }
+}
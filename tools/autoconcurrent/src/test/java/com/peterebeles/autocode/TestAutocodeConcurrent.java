@@ -0,0 +1,284 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterebeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestAutocodeConcurrent {
+    /**
+     * Compares the converted text against files which have been checked by hand. There's a file for each directive.
+     */
+    @Test void convertText_golden() throws IOException {
+        for (String name : new String[]{"header", "inline", "above_below", "remove", "macro", "omit", "loop", "for", "reduce"}) {
+            checkGolden(name);
+        }
+    }
+
+    /**
+     * Every schedule of a FOR should compute the same thing as the sequential loop with every backend
+     */
+    @Test void for_compareToSequential() throws IOException {
+        compareToSequential("for", "staticBlocks", "staticChunks", "cyclic", "dynamic", "offset", "braces",
+                "directives", "nestedLoop");
+    }
+
+    /**
+     * Removing the first or last line of a FOR would remove the code which starts or ends the parallel loop
+     */
+    @Test void for_removeBoundaryThrows() {
+        String first = "class Foo {\nvoid a( int n ) {\n//CONCURRENT_FOR\nfor (int i = 0; i < n; i++) {\n" +
+                "//CONCURRENT_REMOVE_ABOVE\n}\n}\n}\n";
+        assertThrows(RuntimeException.class, () -> AutocodeConcurrent.convertText(first, "foo", "Foo", "Foo_MT"));
+
+        String last = "class Foo {\nvoid a( int n ) {\n//CONCURRENT_FOR\nfor (int i = 0; i < n; i++) {\n}\n" +
+                "//CONCURRENT_ABOVE }\n}\n}\n";
+        assertThrows(RuntimeException.class, () -> AutocodeConcurrent.convertText(last, "foo", "Foo", "Foo_MT"));
+    }
+
+    /**
+     * Every REDUCE should compute the same thing as the sequential loop with every backend
+     */
+    @Test void reduce_compareToSequential() throws IOException {
+        compareToSequential("reduce", "sumDouble", "sumChunks", "product", "minimum", "maximum", "directives");
+    }
+
+    /**
+     * With a chunk size the partials are combined in the same order no matter how many threads there are, so the
+     * rounding is always the same
+     */
+    @Test void reduce_sameOrderEveryTime() throws IOException {
+        String template = readResource("golden/reduce_input.txt");
+        int n = 10_007;
+
+        // Sum of each chunk of 64 then the chunks are added together in order
+        double expected = 0;
+        for (int lower = 0; lower < n; lower += 64) {
+            double partial = 0;
+            for (int i = lower; i < Math.min(n, lower + 64); i++) {
+                partial += 1.0/(i + 1);
+            }
+            expected += partial;
+        }
+
+        for (ConcurrentBackend backend : TestConcurrentBackend.backends()) {
+            ConcurrentBackend original = AutocodeConcurrent.backend;
+            AutocodeConcurrent.backend = backend;
+            try (var code = new CompileGenerated(template, Map.of("Loops", TestConcurrentBackend.HELPER))) {
+                for (int trial = 0; trial < 5; trial++) {
+                    assertEquals(expected, (double)CompileGenerated.call(code.concurrent, "sumInexact", n),
+                            backend.getClass().getSimpleName());
+                }
+            } finally {
+                AutocodeConcurrent.backend = original;
+            }
+        }
+    }
+
+    /**
+     * Every file should be in the report as converted, skipped, or failed
+     */
+    @Test void convertDir_report() throws IOException {
+        File root = Files.createTempDirectory("autoconcurrent").toFile();
+        try {
+            File directory = new File(root, "src/main/java/foo");
+            writeFiles(directory);
+
+            AutocodeConcurrent.Report report = AutocodeConcurrent.convertDir(directory, ".*\\.java", ".*_MT\\.java");
+            checkReport(root, directory, report);
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Files inside of directories should be converted in parallel and hidden directories skipped
+     */
+    @Test void convertDirRecursive_report() throws IOException {
+        File root = Files.createTempDirectory("autoconcurrent").toFile();
+        try {
+            File directory = new File(root, "src/main/java/foo");
+            writeFiles(new File(directory, "bar"));
+            writeConcurrent(new File(directory, ".hidden/D.java"), "D");
+
+            AutocodeConcurrent.Report report = AutocodeConcurrent.convertDirRecursive(
+                    new File(root, "src/main/java"), ".*\\.java", ".*_MT\\.java", 2);
+            checkReport(root, new File(directory, "bar"), report);
+            assertFalse(new File(directory, ".hidden/D_MT.java").exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * A mistake in a directive needs to be fixed and should be thrown, not put in the report
+     */
+    @Test void directiveError_thrown() throws IOException {
+        File root = Files.createTempDirectory("autoconcurrent").toFile();
+        try {
+            File directory = new File(root, "src/main/java/foo");
+            File bad = new File(directory, "Bad.java");
+            FileUtils.write(bad, "package foo;\n\npublic class Bad {\n//CONCURRENT_FOO\n}\n", StandardCharsets.UTF_8);
+            writeConcurrent(new File(directory, "A.java"), "A");
+
+            RuntimeException e = assertThrows(RuntimeException.class,
+                    () -> AutocodeConcurrent.convertDir(directory, ".*\\.java", ".*_MT\\.java"));
+            assertTrue(e.getMessage().contains("Bad.java"));
+            assertTrue(e.getCause().getMessage().contains("Unknown: FOO"));
+
+            e = assertThrows(RuntimeException.class,
+                    () -> AutocodeConcurrent.convertDirRecursive(directory, ".*\\.java", ".*_MT\\.java", 2));
+            assertTrue(e.getMessage().contains("Bad.java"));
+
+            // A macro needs a name and text
+            FileUtils.write(bad, "package foo;\n\npublic class Bad {\n//CONCURRENT_MACRO FOO\n}\n",
+                    StandardCharsets.UTF_8);
+            assertThrows(RuntimeException.class,
+                    () -> AutocodeConcurrent.convertDir(directory, ".*\\.java", ".*_MT\\.java"));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * The marker should be found when it's split between two reads
+     */
+    @Test void containsMarker_splitBetweenReads() throws IOException {
+        File root = Files.createTempDirectory("autoconcurrent").toFile();
+        try {
+            File file = new File(root, "A.java");
+            byte[] marker = AutocodeConcurrent.MARKER.getBytes(StandardCharsets.UTF_8);
+            int block = 8*1024;
+
+            for (int offset = block - marker.length - 1; offset <= block + 1; offset++) {
+                byte[] data = new byte[offset + marker.length + 10];
+                fill(data, 0, data.length);
+                System.arraycopy(marker, 0, data, offset, marker.length);
+                Files.write(file.toPath(), data);
+                assertTrue(AutocodeConcurrent.containsMarker(file), "offset=" + offset);
+
+                // Only part of the marker is there
+                fill(data, offset + marker.length - 1, data.length);
+                Files.write(file.toPath(), data);
+                assertFalse(AutocodeConcurrent.containsMarker(file), "offset=" + offset);
+            }
+
+            // Several blocks long and no marker
+            byte[] data = new byte[3*block + 5];
+            fill(data, 0, data.length);
+            Files.write(file.toPath(), data);
+            assertFalse(AutocodeConcurrent.containsMarker(file));
+
+            Files.write(file.toPath(), new byte[0]);
+            assertFalse(AutocodeConcurrent.containsMarker(file));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Converts the input file with LF and CRLF line endings and makes sure it's the same as the expected file.
+     * Lines in the output always end with the line separator of the system.
+     */
+    static void checkGolden( String name ) throws IOException {
+        String input = readResource("golden/" + name + "_input.txt");
+        String expected = readResource("golden/" + name + "_expected.txt").replace("\n", System.lineSeparator());
+
+        assertEquals(expected, AutocodeConcurrent.convertText(input, "foo", "Foo", "Foo_MT"), name);
+        assertEquals(expected, AutocodeConcurrent.convertText(input.replace("\n", "\r\n"), "foo", "Foo", "Foo_MT"),
+                name + " CRLF");
+    }
+
+    /**
+     * Compiles the input of the golden test before and after it's converted by each backend and checks to see if the
+     * functions return the same thing. Each function has a single argument which is the number of iterations.
+     */
+    static void compareToSequential( String name, String... functions ) throws IOException {
+        String template = readResource("golden/" + name + "_input.txt");
+        for (ConcurrentBackend backend : TestConcurrentBackend.backends()) {
+            ConcurrentBackend original = AutocodeConcurrent.backend;
+            AutocodeConcurrent.backend = backend;
+            try (var code = new CompileGenerated(template, Map.of("Loops", TestConcurrentBackend.HELPER))) {
+                for (String function : functions) {
+                    for (int n : new int[]{0, 1, 2, 3, 4, 10_007}) {
+                        Object[] found = code.call(function, n);
+                        assertEquals(Arrays.deepToString(new Object[]{found[0]}), Arrays.deepToString(new Object[]{found[1]}),
+                                backend.getClass().getSimpleName() + " " + function + " n=" + n);
+                    }
+                }
+            } finally {
+                AutocodeConcurrent.backend = original;
+            }
+        }
+    }
+
+    /** Reads the resource and converts the line endings to LF in case they were changed when it was checked out */
+    private static String readResource( String path ) throws IOException {
+        try (InputStream in = TestAutocodeConcurrent.class.getResourceAsStream("/" + path)) {
+            assertNotNull(in, path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+    }
+
+    /**
+     * Writes a file which will be converted, one which is skipped, and one which fails because its output can't
+     * be written
+     */
+    private static void writeFiles( File directory ) throws IOException {
+        writeConcurrent(new File(directory, "A.java"), "A");
+        FileUtils.write(new File(directory, "B.java"), "package foo;\n\npublic class B {}\n", StandardCharsets.UTF_8);
+        writeConcurrent(new File(directory, "C.java"), "C");
+        assertTrue(new File(directory, "C_MT.java").mkdirs());
+        // Doesn't match include
+        writeConcurrent(new File(directory, "E.txt"), "E");
+    }
+
+    private static void checkReport( File root, File directory, AutocodeConcurrent.Report report ) {
+        assertEquals(List.of(new File(directory, "A.java")), report.converted);
+        assertEquals(List.of(new File(directory, "B.java")), report.skipped);
+        assertEquals(1, report.failures.size());
+        assertEquals(new File(directory, "C.java"), report.failures.get(0).file);
+        assertTrue(report.failures.get(0).error instanceof IOException);
+        assertFalse(report.isSuccess());
+
+        assertTrue(new File(directory, "A_MT.java").isFile());
+        assertFalse(new File(directory, "B_MT.java").exists());
+        assertFalse(new File(directory, "E_MT.java").exists());
+        String relative = root.toPath().resolve("src/main/java").relativize(directory.toPath()).toString();
+        assertTrue(new File(root, "src/test/java/" + relative + "/TestA_MT.java").isFile());
+
+        var text = new ByteArrayOutputStream();
+        report.print(new PrintStream(text, true, StandardCharsets.UTF_8));
+        assertTrue(text.toString(StandardCharsets.UTF_8).startsWith("converted=1 skipped=1 failed=1"));
+    }
+
+    private static void writeConcurrent( File file, String className ) throws IOException {
+        FileUtils.write(file, "package foo;\n\nimport java.util.List;\n\npublic class " + className + " {\n" +
+                "\t//CONCURRENT_INLINE int a = 2;\n}\n", StandardCharsets.UTF_8);
+    }
+
+    /** Fills the array with characters which can't be part of the marker */
+    private static void fill( byte[] data, int start, int end ) {
+        for (int i = start; i < end; i++) {
+            data[i] = (byte)('a' + i%26);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterebeles.autocode;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestConcurrentBackend {
+    /** Functions with loops which are compiled before and after being converted */
+    static final String LOOPS = "package foo;\n\n" +
+            "public class Foo {\n" +
+            "\tpublic static int[] square( int n ) {\n" +
+            "\t\tint[] out = new int[n];\n" +
+            "\t\t//CONCURRENT_LOOP i 0 n\n" +
+            "\t\tfor (int i = 0; i < n; i++) {\n" +
+            "\t\t\tout[i] = i*i + 1;\n" +
+            "\t\t}\n" +
+            "\t\t//CONCURRENT_LOOP_END\n" +
+            "\t\treturn out;\n" +
+            "\t}\n\n" +
+            "\tpublic static int[] nested( int n ) {\n" +
+            "\t\tint[] out = new int[n*n];\n" +
+            "\t\t//CONCURRENT_LOOP i 0 n\n" +
+            "\t\tfor (int i = 0; i < n; i++) {\n" +
+            "\t\t\t//CONCURRENT_LOOP j 0 n\n" +
+            "\t\t\tfor (int j = 0; j < n; j++) {\n" +
+            "\t\t\t\tout[i*n + j] = i*31 + j;\n" +
+            "\t\t\t}\n" +
+            "\t\t\t//CONCURRENT_LOOP_END\n" +
+            "\t\t}\n" +
+            "\t\t//CONCURRENT_LOOP_END\n" +
+            "\t\treturn out;\n" +
+            "\t}\n\n" +
+            "\tpublic static int[] fails( int n ) {\n" +
+            "\t\t//CONCURRENT_LOOP i 0 n\n" +
+            "\t\tfor (int i = 0; i < n; i++) {\n" +
+            "\t\t\tif (i == n/2)\n" +
+            "\t\t\t\tthrow new IllegalStateException(\"index \" + i);\n" +
+            "\t\t}\n" +
+            "\t\t//CONCURRENT_LOOP_END\n" +
+            "\t\treturn new int[0];\n" +
+            "\t}\n" +
+            "}\n";
+
+    /** Pool and loop function used by the backends which need them */
+    static final String HELPER = "package foo;\n\n" +
+            "public class Loops {\n" +
+            "\tpublic static final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(3);\n\n" +
+            "\tpublic static void loopFor( int lower, int upper, java.util.function.IntConsumer body ) {\n" +
+            "\t\tfor (int i = lower; i < upper; i++) {\n" +
+            "\t\t\tbody.accept(i);\n" +
+            "\t\t}\n" +
+            "\t}\n" +
+            "}\n";
+
+    /** Sizes which are empty, a single index, fewer than the number of threads, and much larger */
+    static final int[] SIZES = {0, 1, 2, 10_007};
+
+    /**
+     * Every backend should compute the same thing as the sequential code
+     */
+    @Test void compareToSequential() throws IOException {
+        for (ConcurrentBackend backend : backends()) {
+            ConcurrentBackend original = AutocodeConcurrent.backend;
+            AutocodeConcurrent.backend = backend;
+            try (var code = new CompileGenerated(LOOPS, Map.of("Loops", HELPER))) {
+                String name = backend.getClass().getSimpleName();
+                for (int n : SIZES) {
+                    Object[] found = code.call("square", n);
+                    assertArrayEquals((int[])found[0], (int[])found[1], name + " n=" + n);
+                }
+                for (int n : new int[]{0, 1, 2, 50}) {
+                    Object[] found = code.call("nested", n);
+                    assertArrayEquals((int[])found[0], (int[])found[1], name + " n=" + n);
+                }
+            } finally {
+                AutocodeConcurrent.backend = original;
+            }
+        }
+    }
+
+    /**
+     * An exception thrown inside the loop should be thrown by the concurrent code too
+     */
+    @Test void exceptionNotLost() throws IOException {
+        for (ConcurrentBackend backend : backends()) {
+            ConcurrentBackend original = AutocodeConcurrent.backend;
+            AutocodeConcurrent.backend = backend;
+            try (var code = new CompileGenerated(LOOPS, Map.of("Loops", HELPER))) {
+                String name = backend.getClass().getSimpleName();
+                for (int n : SIZES) {
+                    Object[] found = code.call("fails", n);
+                    if (n == 0) {
+                        assertEquals(0, ((int[])found[1]).length, name);
+                    } else {
+                        assertTrue(found[0] instanceof IllegalStateException, name + " n=" + n);
+                        assertTrue(found[1] instanceof IllegalStateException, name + " n=" + n);
+                    }
+                }
+            } finally {
+                AutocodeConcurrent.backend = original;
+            }
+        }
+    }
+
+    /**
+     * Locals declared by virtual threads are named after the loop's variable so that loops can be nested. This is
+     * compiled by {@link #compareToSequential()} on Java 21 or newer.
+     */
+    @Test void virtualThreads_nestedNames() {
+        ConcurrentBackend original = AutocodeConcurrent.backend;
+        AutocodeConcurrent.backend = ConcurrentBackend.VIRTUAL_THREADS;
+        try {
+            String found = AutocodeConcurrent.convertText(LOOPS, "foo", "Foo", "Foo_MT");
+            assertTrue(found.contains("var i_executor__ ="));
+            assertTrue(found.contains("var j_executor__ ="));
+            assertTrue(found.contains("i_futures__.add(i_executor__.submit("));
+            assertTrue(found.contains("j_futures__.add(j_executor__.submit("));
+            assertTrue(found.contains("i_future__.get();"));
+            assertTrue(found.contains("j_future__.get();"));
+        } finally {
+            AutocodeConcurrent.backend = original;
+        }
+    }
+
+    /**
+     * Every LOOP needs a LOOP_END and the other way around
+     */
+    @Test void loopEnd_unmatched() {
+        String missingEnd = "class Foo {\n//CONCURRENT_LOOP i 0 n\nfor (int i = 0; i < n; i++) {\n}\n}\n";
+        assertThrows(RuntimeException.class, () -> AutocodeConcurrent.convertText(missingEnd, "foo", "Foo", "Foo_MT"));
+
+        String missingLoop = "class Foo {\nvoid a() {\n}\n//CONCURRENT_LOOP_END\n}\n";
+        assertThrows(RuntimeException.class, () -> AutocodeConcurrent.convertText(missingLoop, "foo", "Foo", "Foo_MT"));
+    }
+
+    /**
+     * Backends which can be tested with the version of Java that's running. Virtual threads need Java 21.
+     */
+    static List<ConcurrentBackend> backends() {
+        List<ConcurrentBackend> backends = new ArrayList<>();
+        backends.add(ConcurrentBackend.PARALLEL_STREAM);
+        backends.add(ConcurrentBackend.forkJoin("Loops.pool"));
+        backends.add(ConcurrentBackend.loopFunction("Loops.loopFor"));
+        if (Runtime.version().feature() >= 21)
+            backends.add(ConcurrentBackend.VIRTUAL_THREADS);
+        return backends;
+    }
+}
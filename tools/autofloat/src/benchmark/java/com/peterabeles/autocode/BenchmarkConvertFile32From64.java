@@ -0,0 +1,122 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for each stage in converting a single file and for converting the entire file.
+ *
+ * @author Peter Abeles
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+public class BenchmarkConvertFile32From64 {
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    @Param({"LITERALS", "COMMENTS"})
+    public SyntheticCorpus.Style style;
+
+    String source;
+    ConversionPlan plan;
+    ConversionContext context;
+    SourceLexer lexer = new SourceLexer(Language.JAVA);
+
+    // All the tokens in the source
+    TokenSpans tokens = new TokenSpans();
+    // Words in the source before they have been split at quotes
+    TokenSpans words = new TokenSpans();
+    TokenSpans output = new TokenSpans();
+
+    File inputFile;
+    File outputFile;
+
+    @Setup public void setup() throws IOException {
+        source = SyntheticCorpus.create(lines, style);
+        plan = new ConvertFile32From64(true).createPlan();
+        context = plan.createContext();
+        ConvertFile32From64.readIntoTokens(source, tokens);
+
+        int start = -1;
+        for (int i = 0; i <= source.length(); i++) {
+            boolean whitespace = i == source.length() || Character.isWhitespace(source.charAt(i));
+            if (whitespace && start >= 0) {
+                words.add(start, i);
+                start = -1;
+            } else if (!whitespace && start < 0) {
+                start = i;
+            }
+        }
+
+        File directory = Files.createTempDirectory("autofloat").toFile();
+        inputFile = new File(directory, "Synthetic_F64.java");
+        outputFile = new File(directory, "Synthetic_F32.java");
+        SourceText.write(source, inputFile);
+    }
+
+    @TearDown public void tearDown() {
+        outputFile.delete();
+        inputFile.delete();
+        inputFile.getParentFile().delete();
+    }
+
+    @Benchmark public int readIntoTokens() {
+        ConvertFile32From64.readIntoTokens(source, tokens);
+        return tokens.size();
+    }
+
+    @Benchmark public int tokenize() {
+        lexer.tokenize(source, output);
+        return output.size();
+    }
+
+    @Benchmark public int handleQuoteTokens() {
+        output.reset();
+        for (int i = 0; i < words.size(); i++) {
+            ConvertFile32From64.handleQuoteTokens(source, words.start(i), words.end(i), output);
+        }
+        return output.size();
+    }
+
+    @Benchmark public int handleToken() {
+        context.out.setLength(0);
+        for (int i = 0; i < tokens.size(); i++) {
+            context.handleToken(source, tokens.start(i), tokens.end(i));
+        }
+        return context.out.length();
+    }
+
+    @Benchmark public String convert() {
+        return plan.convert(source, "Synthetic_F64", "Synthetic_F32");
+    }
+
+    @Benchmark public void process() throws IOException {
+        // Delete the output so that it has to be written every time
+        outputFile.delete();
+        plan.process(inputFile, outputFile);
+    }
+
+    public static void main( String[] args ) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BenchmarkConvertFile32From64.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.util.Random;
+
+/**
+ * Creates synthetic 64-bit source files for benchmarks. The same arguments always produce the same file.
+ *
+ * @author Peter Abeles
+ */
+public class SyntheticCorpus {
+    /** What type of content dominates the file */
+    public enum Style {
+        /** Mostly code with lots of floating point literals and calls to Math */
+        LITERALS,
+        /** Mostly javadoc and line comments with a little bit of code */
+        COMMENTS
+    }
+
+    /**
+     * Creates a source file for a class called "Synthetic_F64"
+     *
+     * @param lines Approximate number of lines in the file
+     * @param style What kind of content dominates the file
+     */
+    public static String create( int lines, Style style ) {
+        var rand = new Random(0xBEEF);
+        var out = new StringBuilder(lines*48);
+        out.append("/*\n * Copyright (c) 2024, Someone. All Rights Reserved.\n */\n\n");
+        out.append("package com.example.synthetic;\n\n");
+        out.append("import com.example.DMatrix_F64;\n\n");
+        out.append("public class Synthetic_F64 {\n");
+
+        int count = 7;
+        int method = 0;
+        while (count < lines) {
+            if (style == Style.COMMENTS) {
+                count += appendComment(rand, out);
+            }
+            out.append("\tpublic double compute").append(method++).append("( double x, DMatrix_F64 m ) {\n");
+            out.append("\t\tdouble sum = 0.0;\n");
+            int body = style == Style.LITERALS ? 15 : 3;
+            for (int i = 0; i < body; i++) {
+                appendCode(rand, out, i);
+            }
+            out.append("\t\treturn sum;\n\t}\n\n");
+            count += body + 5;
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static int appendComment( Random rand, StringBuilder out ) {
+        out.append("\t/**\n");
+        int lines = 5 + rand.nextInt(10);
+        for (int i = 0; i < lines; i++) {
+            out.append("\t * Computes the double value using ").append(rand.nextInt(100)).append(".5 as the scale, ");
+            out.append("see \"Numerical Recipes\" for details on Math.sqrt(x) accuracy\n");
+        }
+        out.append("\t */\n");
+        out.append("\t// TODO check that ").append(rand.nextDouble()).append(" is a reasonable threshold\n");
+        return lines + 3;
+    }
+
+    private static void appendCode( Random rand, StringBuilder out, int i ) {
+        switch (rand.nextInt(4)) {
+            case 0:
+                out.append("\t\tdouble v").append(i).append(" = ").append(rand.nextInt(10)).append(".25*x + ")
+                        .append(rand.nextDouble()).append("e-3*Math.sqrt(x) - 0.125;\n");
+                break;
+            case 1:
+                out.append("\t\tsum += (double)Math.cos(x*").append(rand.nextInt(100)).append(".0) + 1.5e")
+                        .append(rand.nextInt(10)).append(";\n");
+                break;
+            case 2:
+                out.append("\t\tsum += m.get(").append(i).append(",0)*-Math.exp(2.0*x);\n");
+                break;
+            default:
+                out.append("\t\t/**/double fixed").append(i).append(" = /**/Math.log(\"")
+                        .append(rand.nextInt(1000)).append(" 1.0 double\".length());\n");
+                break;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Annotation processor which generates the 32-bit version of every class marked with {@link GenerateFloat}
+ * while the 64-bit code is being compiled. The generated source is written using the {@link javax.annotation.processing.Filer}
+ * so it's compiled in the same javac invocation and doesn't need to be committed.
+ *
+ * The processor isn't registered as a service, so javac doesn't run it for every project which has autofloat on
+ * its class path. Enable it with "-processor com.peterabeles.autocode.AutoFloatProcessor". To customize the rules,
+ * extend this class, override {@link #createConverter()}, and use the new class as the processor instead.
+ *
+ * The 64-bit source code is used as the template. It's read from the first of these which has it:
+ * <ol>
+ *     <li>The directories in the autofloat.sourcepath option</li>
+ *     <li>The file the compiler read the class from, when running on Java 18 or newer</li>
+ *     <li>The compiler's source path</li>
+ * </ol>
+ * Gradle leaves the source path empty, so with Gradle on older versions of Java the option must be set.
+ * Compiler specific APIs are not used since Gradle wraps the processing environment.
+ *
+ * Options:
+ * <ul>
+ *     <li>-Aautofloat.markAsAutoGenerated=true : Adds the @Generated annotation to the output.</li>
+ *     <li>-Aautofloat.sourcepath=DIRS : Source directories, separated by the path separator, e.g. src/main/java</li>
+ * </ul>
+ *
+ * @author Peter Abeles
+ */
+@SupportedAnnotationTypes("com.peterabeles.autocode.GenerateFloat")
+@SupportedOptions({AutoFloatProcessor.OPTION_GENERATED, AutoFloatProcessor.OPTION_SOURCEPATH})
+public class AutoFloatProcessor extends AbstractProcessor {
+    public static final String OPTION_GENERATED = "autofloat.markAsAutoGenerated";
+    public static final String OPTION_SOURCEPATH = "autofloat.sourcepath";
+
+    public static final String SUFFIX_64 = "_F64";
+    public static final String SUFFIX_32 = "_F32";
+
+    private ConversionPlan plan;
+
+    @Override public synchronized void init( ProcessingEnvironment processingEnv ) {
+        super.init(processingEnv);
+        ConvertFile32From64 converter = createConverter();
+        converter.markAsAutoGenerated |= Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_GENERATED));
+        plan = converter.createPlan();
+    }
+
+    /**
+     * Creates the converter which defines the rules used to create the 32-bit code
+     */
+    protected ConvertFile32From64 createConverter() {
+        return new ConvertFile32From64(true);
+    }
+
+    @Override public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateFloat.class)) {
+            if (!(element instanceof TypeElement) || ((TypeElement)element).getNestingKind() != NestingKind.TOP_LEVEL) {
+                error("@GenerateFloat can only be used on top level classes", element);
+                continue;
+            }
+
+            // The generated code is also annotated. Skipping anything which isn't 64-bit prevents a loop
+            String name64 = element.getSimpleName().toString();
+            if (!name64.endsWith(SUFFIX_64))
+                continue;
+
+            try {
+                generate((TypeElement)element, name64);
+            } catch (IOException | RuntimeException e) {
+                error("Failed to generate 32-bit code. " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private void generate( TypeElement element, String name64 ) throws IOException {
+        String name32 = name64.substring(0, name64.length() - SUFFIX_64.length()) + SUFFIX_32;
+        String packageName = packageName(element);
+
+        CharSequence source = readSource(element, packageName, name64);
+        String converted = plan.convert(source, name64, name32);
+
+        // Written with the same encoding it was read with so that the output has the same encoding as the input
+        String qualified = packageName.isEmpty() ? name32 : packageName + "." + name32;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualified, element);
+        try (OutputStream stream = file.openOutputStream()) {
+            SourceText.write(converted, stream);
+        }
+    }
+
+    /**
+     * Reads the source code for the class. The bytes are not decoded, the same as when converting files, so
+     * the encoding of the source doesn't matter.
+     */
+    private CharSequence readSource( TypeElement element, String packageName, String name64 ) throws IOException {
+        String fileName = name64 + ".java";
+        String relative = packageName.isEmpty() ? fileName : packageName.replace('.', '/') + "/" + fileName;
+
+        String sourcepath = processingEnv.getOptions().get(OPTION_SOURCEPATH);
+        if (sourcepath != null) {
+            for (String directory : sourcepath.split(File.pathSeparator)) {
+                if (directory.isEmpty())
+                    continue;
+                Path path = Path.of(directory, relative);
+                if (Files.isRegularFile(path))
+                    return new SourceText(Files.readAllBytes(path));
+            }
+        }
+
+        FileObject file = fileObjectOf(element);
+        if (file == null) {
+            try {
+                file = processingEnv.getFiler().getResource(StandardLocation.SOURCE_PATH, packageName, fileName);
+            } catch (IOException | IllegalArgumentException ignore) {
+                // It isn't in the source path or there is no source path
+            }
+        }
+        if (file == null)
+            throw new IOException("Can't find " + relative + ". Set -A" + OPTION_SOURCEPATH + " to the source directories.");
+
+        try (InputStream stream = file.openInputStream()) {
+            return new SourceText(stream.readAllBytes());
+        }
+    }
+
+    /**
+     * Returns the file the compiler read the element from using Elements.getFileObjectOf(), which was added in
+     * Java 18. It's called using reflection since the code is compiled for Java 11.
+     *
+     * @return The source file or null if it isn't known
+     */
+    private FileObject fileObjectOf( Element element ) {
+        try {
+            // Looked up in the interface since the compiler's implementation isn't accessible
+            Method method = Elements.class.getMethod("getFileObjectOf", Element.class);
+            Object file = method.invoke(processingEnv.getElementUtils(), element);
+            // It could be a class file if the element wasn't compiled from source
+            if (file instanceof JavaFileObject && ((JavaFileObject)file).getKind() == JavaFileObject.Kind.SOURCE)
+                return (FileObject)file;
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException |
+                 UnsupportedOperationException ignore) {
+            // Older version of Java or it's not supported by this environment
+        }
+        return null;
+    }
+
+    private String packageName( Element element ) {
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return ((PackageElement)element).getQualifiedName().toString();
+    }
+
+    private void error( String message, Element element ) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import com.peterabeles.JavaHeaderAnalyzer;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles generated source files in memory to make sure that the conversion didn't break anything, e.g. a
+ * literal which doesn't fit in the new type. This is much faster than waiting for the entire build to fail.
+ * Class files are discarded and nothing is written to disk.
+ *
+ * Files are compiled in batches, which can be run in parallel. Other classes which are referenced are found on
+ * the source path or the class path. Only errors inside of the files being verified are reported. The line of
+ * each error is mapped back to the line in the original _F64 file, taking into account the lines which were
+ * added when it was marked as generated.
+ *
+ * @author Peter Abeles
+ */
+public class CompileVerifier {
+    /** Class path used to compile. If null then the class path of this JVM is used */
+    private String classpath = null;
+    /** Directories containing source code for classes referenced by the files being compiled */
+    private final List<File> sourcepath = new ArrayList<>();
+    /** Options passed to the compiler in addition to the paths, e.g. "--release", "11" */
+    private final List<String> options = new ArrayList<>();
+    /** Encoding of the source files */
+    private Charset charset = StandardCharsets.UTF_8;
+    /** Maximum number of files compiled at once */
+    private int batchSize = 100;
+    /** Number of batches compiled at the same time */
+    private int threads = 1;
+
+    /**
+     * Compiles the files and returns every error found in them
+     *
+     * @param sources Generated files and the files they were generated from
+     * @return Errors sorted by file and line. Empty if everything compiled
+     * @throws IllegalStateException If there is no compiler, which happens when running on a JRE instead of a JDK
+     */
+    public List<Failure> verify( List<Source> sources ) throws IOException {
+        return verify(sources, List.of());
+    }
+
+    /**
+     * Same as {@link #verify(List)} but with additional directories on the source path
+     *
+     * @param extraSourcepath Directories which are added to the source path for just this call
+     */
+    public List<Failure> verify( List<Source> sources, List<File> extraSourcepath ) throws IOException {
+        List<File> sourcepath = new ArrayList<>(this.sourcepath);
+        sourcepath.addAll(extraSourcepath);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("No Java compiler found. A JDK is required to verify generated code.");
+
+        List<List<Source>> batches = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i += batchSize) {
+            batches.add(sources.subList(i, Math.min(sources.size(), i + batchSize)));
+        }
+
+        List<Failure> failures = new ArrayList<>();
+        if (threads <= 1 || batches.size() <= 1) {
+            for (List<Source> batch : batches) {
+                failures.addAll(compile(compiler, batch, sourcepath));
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, batches.size()));
+            try {
+                List<Future<List<Failure>>> futures = new ArrayList<>();
+                for (List<Source> batch : batches) {
+                    futures.add(pool.submit(() -> compile(compiler, batch, sourcepath)));
+                }
+                for (Future<List<Failure>> f : futures) {
+                    failures.addAll(f.get());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        failures.sort(Comparator.comparing((Failure f) -> f.generated.getPath()).thenComparingLong(f -> f.line));
+        return failures;
+    }
+
+    /**
+     * Compiles a single batch and returns the errors in it
+     */
+    private List<Failure> compile( JavaCompiler compiler, List<Source> batch, List<File> sourcepath )
+            throws IOException {
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, Locale.ROOT, charset);
+
+        List<File> files = new ArrayList<>();
+        Map<URI, Source> lookup = new HashMap<>();
+        for (Source s : batch) {
+            files.add(s.generated);
+        }
+        Iterable<? extends JavaFileObject> units = standard.getJavaFileObjectsFromFiles(files);
+        int index = 0;
+        for (JavaFileObject unit : units) {
+            lookup.put(unit.toUri(), batch.get(index++));
+        }
+
+        List<String> arguments = new ArrayList<>(options);
+        arguments.add("-proc:none");
+        arguments.add("-implicit:none");
+        arguments.add("-nowarn");
+        arguments.add("-classpath");
+        arguments.add(classpath != null ? classpath : System.getProperty("java.class.path"));
+        if (!sourcepath.isEmpty()) {
+            arguments.add("-sourcepath");
+            arguments.add(toPath(sourcepath));
+        }
+
+        try (JavaFileManager manager = new DiscardOutput(standard)) {
+            compiler.getTask(null, manager, diagnostics, arguments, null, units).call();
+        }
+
+        List<Failure> failures = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Map<Source, int[]> lineMaps = new HashMap<>();
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            if (d.getKind() != Diagnostic.Kind.ERROR)
+                continue;
+            Source source = d.getSource() == null ? null : lookup.get(d.getSource().toUri());
+            if (source == null) {
+                // Errors in other files are reported when those files are verified. Errors without a file,
+                // e.g. a bad option, would make every file fail
+                if (d.getSource() == null)
+                    throw new IllegalArgumentException(d.getMessage(Locale.ROOT));
+                continue;
+            }
+
+            var failure = new Failure();
+            failure.generated = source.generated;
+            failure.original = source.original;
+            failure.line = d.getLineNumber();
+            failure.message = d.getMessage(Locale.ROOT);
+            failure.originalLine = failure.line;
+            if (source.original != null && failure.line > 0) {
+                int[] map = lineMaps.get(source);
+                if (map == null) {
+                    map = lineMap(read(source.original), read(source.generated));
+                    lineMaps.put(source, map);
+                }
+                if (failure.line <= map.length)
+                    failure.originalLine = map[(int)failure.line - 1] + 1;
+            }
+            // The same error can be reported more than once
+            if (seen.add(failure.generated.getPath() + ":" + failure.line + ":" + failure.message))
+                failures.add(failure);
+        }
+        return failures;
+    }
+
+    private String read( File file ) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), charset);
+    }
+
+    /**
+     * Maps each line in the generated file to a line in the original file. Lines are only ever added to the
+     * file when it's marked as generated, so those are the only lines that need to be accounted for.
+     *
+     * @return Zero based line in the original file for each zero based line in the generated file
+     */
+    static int[] lineMap( CharSequence original, CharSequence generated ) {
+        int linesOriginal = countLines(original);
+        int linesGenerated = countLines(generated);
+
+        // Lines which were added when the file was marked as generated
+        List<Integer> added = new ArrayList<>();
+        var header = new JavaHeaderAnalyzer();
+        if (linesGenerated > linesOriginal && header.analyze(original) &&
+                header.generatedImport < 0 && header.generatedAnnotations.isEmpty() && header.analyze(generated)) {
+            if (header.generatedImport >= 0)
+                added.add(header.lineOf(header.generatedImport));
+            for (int location : header.generatedAnnotations) {
+                added.add(header.lineOf(location));
+            }
+        }
+
+        int[] map = new int[linesGenerated];
+        int skipped = 0;
+        for (int line = 0; line < linesGenerated; line++) {
+            // An added line is mapped to the line it was inserted in front of
+            map[line] = line - skipped;
+            if (added.contains(line))
+                skipped++;
+        }
+        return map;
+    }
+
+    private static int countLines( CharSequence text ) {
+        int lines = 1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n')))
+                lines++;
+        }
+        return lines;
+    }
+
+    private static String toPath( List<File> files ) {
+        var builder = new StringBuilder();
+        for (File f : files) {
+            if (builder.length() > 0)
+                builder.append(File.pathSeparatorChar);
+            builder.append(f.getAbsolutePath());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Prints the failures in the same format as the compiler, but with the line in the original file
+     */
+    public static void print( List<Failure> failures, PrintStream out ) {
+        for (Failure f : failures) {
+            out.println(f);
+        }
+        if (!failures.isEmpty())
+            out.println(failures.size() + (failures.size() == 1 ? " error" : " errors"));
+    }
+
+    public String getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Class path used to compile the generated code. If null then the class path of this JVM is used.
+     */
+    public void setClasspath( String classpath ) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Adds a directory containing the source code of classes referenced by the generated code, e.g. "src/main/java"
+     */
+    public void addSourcepath( File directory ) {
+        sourcepath.add(directory);
+    }
+
+    public List<File> getSourcepath() {
+        return sourcepath;
+    }
+
+    /**
+     * Adds options which are passed to the compiler, e.g. "--release", "11"
+     */
+    public void addOptions( String... options ) {
+        this.options.addAll(List.of(options));
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setCharset( Charset charset ) {
+        this.charset = charset;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize( int batchSize ) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        this.batchSize = batchSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads( int threads ) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Threads must be at least 1");
+        this.threads = threads;
+    }
+
+    /** A generated file and the file it was generated from */
+    public static class Source {
+        /** The generated file which is compiled */
+        public final File generated;
+        /** The file it was generated from. Can be null */
+        public final File original;
+
+        public Source( File generated, File original ) {
+            this.generated = generated;
+            this.original = original;
+        }
+    }
+
+    /** A compile error in a generated file */
+    public static class Failure {
+        public File generated;
+        /** File it was generated from. null if unknown */
+        public File original;
+        /** Line in the generated file. Starts from 1. Less than 1 if unknown */
+        public long line;
+        /** Line in the original file. Starts from 1. Same as line if there's no original file */
+        public long originalLine;
+        public String message;
+
+        @Override public String toString() {
+            if (original == null)
+                return generated.getPath() + ":" + line + ": error: " + message;
+            return original.getPath() + ":" + originalLine + ": error: " + message +
+                    " (" + generated.getName() + ":" + line + ")";
+        }
+    }
+
+    /** Throws away the class files */
+    private static class DiscardOutput extends ForwardingJavaFileManager<JavaFileManager> {
+        DiscardOutput( JavaFileManager manager ) {
+            super(manager);
+        }
+
+        @Override public JavaFileObject getJavaFileForOutput( Location location, String className,
+                                                              JavaFileObject.Kind kind, FileObject sibling ) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override public OutputStream openOutputStream() {
+                    return OutputStream.nullOutputStream();
+                }
+            };
+        }
+    }
+}
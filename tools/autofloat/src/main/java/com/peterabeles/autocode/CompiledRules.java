@@ -0,0 +1,448 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The replacement rules in {@link ConvertFile32From64} compiled once so that they can be applied to every token
+ * without recompiling a regex each time. Before any rule is applied a single scan of the token is done to see if
+ * it contains a literal that at least one rule requires. Most tokens contain nothing that can be modified and
+ * are returned unchanged after that scan.
+ *
+ * Rules are still applied in the same order as before, replacements, starts with, floats, and then the
+ * after replacements, since the after rules are often used to undo what an earlier rule did. A call to a Math
+ * function which has its own replacement is handled instead of the starts with rules.
+ *
+ * @author Peter Abeles
+ */
+class CompiledRules {
+    /** Regex used to find floating point literals */
+    static final Pattern FLOAT_PATTERN = Pattern.compile("\\d+\\.+\\d+([eE][-+]?\\d+)?");
+    /** Regex used to find floating point literals when converting into integers. Includes "5.", ".5", and "5.0d" */
+    static final Pattern INTEGRAL_FLOAT_PATTERN =
+            Pattern.compile("(?<![\\w.])(\\d+\\.\\d*|\\.\\d+)([eE][-+]?\\d+)?[dDfF]?(?![\\w.])");
+
+    /** Prefix of a call to a function in Math */
+    static final String MATH = "Math.";
+
+    final Rule[] replacements;
+    final StartsWith[] startsWith;
+    final Rule[] replacementsAfter;
+    // Name of a Math function and what a call to it is replaced with
+    final Map<String, String> mathFunctions;
+    // Names of the Math functions in sorted order
+    final String[] mathNames;
+    // Specifies how floating point literals are rewritten
+    final TargetProfile profile;
+
+    // All the literals which a rule requires to be inside the token for it to do anything
+    final String[] triggers;
+    // Lookup table for the first character in a trigger to make the scan fast
+    final boolean[] triggerStart = new boolean[128];
+    // If true then there's a rule which can't be reduced down to a literal and every token needs to be processed
+    final boolean alwaysApply;
+
+    CompiledRules( List<ConvertFile32From64.Replacement> replacements,
+                   List<ConvertFile32From64.Replacement> startsWith,
+                   List<ConvertFile32From64.Replacement> replacementsAfter,
+                   Map<String, String> mathFunctions,
+                   TargetProfile profile ) {
+        this.profile = profile;
+        this.mathFunctions = new HashMap<>(mathFunctions);
+        this.mathNames = mathFunctions.keySet().toArray(new String[0]);
+        Arrays.sort(mathNames);
+        this.replacements = compile(replacements);
+        this.replacementsAfter = compile(replacementsAfter);
+        this.startsWith = new StartsWith[startsWith.size()];
+        for (int i = 0; i < startsWith.size(); i++) {
+            ConvertFile32From64.Replacement r = startsWith.get(i);
+            this.startsWith[i] = new StartsWith(r.pattern, r.replacement);
+        }
+
+        int total = this.replacements.length + this.replacementsAfter.length;
+        triggers = new String[total];
+        boolean always = false;
+        int idx = 0;
+        for (Rule r : this.replacements) {
+            triggers[idx++] = r.literal;
+            always |= r.literal == null;
+        }
+        for (Rule r : this.replacementsAfter) {
+            triggers[idx++] = r.literal;
+            always |= r.literal == null;
+        }
+        alwaysApply = always;
+        for (String t : triggers) {
+            if (t == null)
+                continue;
+            char c = t.charAt(0);
+            if (c < 128)
+                triggerStart[c] = true;
+        }
+    }
+
+    private static Rule[] compile( List<ConvertFile32From64.Replacement> list ) {
+        Rule[] rules = new Rule[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            ConvertFile32From64.Replacement r = list.get(i);
+            rules[i] = new Rule(r.pattern, r.replacement);
+        }
+        return rules;
+    }
+
+    /**
+     * Applies all the rules to the token
+     *
+     * @param s The token
+     * @return The modified token. If nothing was modified then the same instance is returned.
+     */
+    String apply( String s ) {
+        return apply(s, true);
+    }
+
+    /**
+     * Applies all the rules to the token
+     *
+     * @param s The token
+     * @param startsWith If false then the "starts with" rules are skipped
+     * @return The modified token. If nothing was modified then the same instance is returned.
+     */
+    String apply( String s, boolean startsWith ) {
+        return apply(s, startsWith, null);
+    }
+
+    /**
+     * Applies all the rules to the token and counts how often each rule modified it
+     *
+     * @param s The token
+     * @param startsWith If false then the "starts with" rules are skipped
+     * @param hits (Output) Number of times each rule in {@link #ruleNames()} modified a token. Can be null.
+     * @return The modified token. If nothing was modified then the same instance is returned.
+     */
+    String apply( String s, boolean startsWith, long[] hits ) {
+        return apply(s, startsWith, null, hits);
+    }
+
+    /**
+     * Applies all the rules to the token and counts how often each rule modified it
+     *
+     * @param s The token
+     * @param startsWith If false then the "starts with" rules are skipped
+     * @param file Name of the file if the token is code. When converting into an integer, a literal in code which
+     *             isn't a whole number throws an exception. If null, e.g. in a comment, the literal is left alone.
+     * @param hits (Output) Number of times each rule in {@link #ruleNames()} modified a token. Can be null.
+     * @return The modified token. If nothing was modified then the same instance is returned.
+     */
+    String apply( String s, boolean startsWith, String file, long[] hits ) {
+        if (!canModify(s, 0, s.length(), startsWith))
+            return s;
+
+        int index = 0;
+        for (Rule r : replacements) {
+            String t = r.apply(s);
+            if (hits != null && t != s)
+                hits[index]++;
+            s = t;
+            index++;
+        }
+
+        if (startsWith)
+            s = applyStartsWith(s, hits);
+        index += this.startsWith.length + mathNames.length;
+
+        if (profile.isIntegral() ? containsDecimalPoint(s) : containsFloat(s)) {
+            String t;
+            if (profile.isIntegral())
+                t = INTEGRAL_FLOAT_PATTERN.matcher(s).replaceAll(m -> integralLiteral(m.group(), file));
+            else
+                t = FLOAT_PATTERN.matcher(s).replaceAll("$0f");
+            if (hits != null && !t.equals(s))
+                hits[index]++;
+            s = t;
+        }
+        index++;
+
+        for (Rule r : replacementsAfter) {
+            String t = r.apply(s);
+            if (hits != null && t != s)
+                hits[index]++;
+            s = t;
+            index++;
+        }
+        return s;
+    }
+
+    private String applyStartsWith( String s, long[] hits ) {
+        String mapped = applyMathFunction(s, hits);
+        if (mapped != null)
+            return mapped;
+
+        for (int i = 0; i < startsWith.length; i++) {
+            StartsWith r = startsWith[i];
+            if (s.startsWith(r.pattern)) {
+                s = r.replacement + s.substring(r.pattern.length());
+                if (hits != null)
+                    hits[replacements.length + i]++;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Names of the rules in the order they are applied. This is also the order of the hits in
+     * {@link #apply(String, boolean, long[])}.
+     */
+    List<String> ruleNames() {
+        List<String> names = new ArrayList<>();
+        for (Rule r : replacements) {
+            names.add("replace " + r.pattern.pattern());
+        }
+        for (StartsWith r : startsWith) {
+            names.add("startsWith " + r.pattern);
+        }
+        for (String name : mathNames) {
+            names.add("math " + name);
+        }
+        names.add("float literals");
+        for (Rule r : replacementsAfter) {
+            names.add("after " + r.pattern.pattern());
+        }
+        return names;
+    }
+
+    /** Number of rules in {@link #ruleNames()} */
+    int ruleCount() {
+        return replacements.length + startsWith.length + mathNames.length + 1 + replacementsAfter.length;
+    }
+
+    /**
+     * If the token starts with a Math function that has a replacement, e.g. "Math.abs(a)" or "-Math.abs(a)",
+     * then the replacement is applied.
+     *
+     * @return The modified token or null if there's no replacement for it
+     */
+    private String applyMathFunction( String s, long[] hits ) {
+        int start = mathFunctionStart(s, 0, s.length());
+        if (start < 0)
+            return null;
+        int nameStart = start + MATH.length();
+        int nameEnd = nameStart;
+        while (nameEnd < s.length() && Character.isJavaIdentifierPart(s.charAt(nameEnd)))
+            nameEnd++;
+        String name = s.substring(nameStart, nameEnd);
+        String replacement = mathFunctions.get(name);
+        if (replacement == null)
+            return null;
+        if (hits != null)
+            hits[replacements.length + startsWith.length + Arrays.binarySearch(mathNames, name)]++;
+        return s.substring(0, start) + replacement + s.substring(nameEnd);
+    }
+
+    /**
+     * Returns the location of "Math." if the token starts with "Math." or "-Math." and there are Math function
+     * replacements. -1 otherwise.
+     */
+    private int mathFunctionStart( CharSequence text, int start, int end ) {
+        if (mathFunctions.isEmpty())
+            return -1;
+        if (TokenSpans.startsWith(text, start, end, MATH))
+            return 0;
+        if (TokenSpans.startsWith(text, start, end, "-" + MATH))
+            return 1;
+        return -1;
+    }
+
+    /**
+     * Scans the token once and returns true if any rule might modify the token. If false then it's
+     * guaranteed that no rule will modify it.
+     */
+    boolean canModify( String s ) {
+        return canModify(s, 0, s.length());
+    }
+
+    /**
+     * Same as {@link #canModify(String)} but for the token text[start:end]
+     */
+    boolean canModify( CharSequence text, int start, int end ) {
+        return canModify(text, start, end, true);
+    }
+
+    /**
+     * Same as {@link #canModify(CharSequence, int, int)} but the "starts with" rules can be skipped
+     */
+    boolean canModify( CharSequence text, int start, int end, boolean startsWith ) {
+        if (alwaysApply)
+            return true;
+
+        if (startsWith && mathFunctionStart(text, start, end) >= 0)
+            return true;
+
+        for (int i = 0; startsWith && i < this.startsWith.length; i++) {
+            if (TokenSpans.startsWith(text, start, end, this.startsWith[i].pattern))
+                return true;
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && isDecimalPoint(text, start, end, i))
+                return true;
+            if (c < 128 && !triggerStart[c])
+                continue;
+            for (String t : triggers) {
+                if (TokenSpans.startsWith(text, i, end, t))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks to see if the '.' at text[i] could be part of a floating point literal which is rewritten
+     */
+    private boolean isDecimalPoint( CharSequence text, int start, int end, int i ) {
+        boolean digitBefore = i > start && isDigit(text.charAt(i - 1));
+        if (!profile.isIntegral())
+            return digitBefore && i + 1 < end;
+        return digitBefore || i + 1 < end && isDigit(text.charAt(i + 1));
+    }
+
+    /**
+     * Converts a floating point literal into the integer type of the profile
+     *
+     * @param file Name of the file if the literal is in code or null if it isn't
+     */
+    private String integralLiteral( String literal, String file ) {
+        String converted = profile.rewriteLiteral(literal);
+        if (converted != null)
+            return converted;
+        if (file != null)
+            throw new IllegalArgumentException("Literal " + literal + " in " + file + " isn't a whole number which " +
+                    "fits in " + profile.getPrimitive() + ". If truncating is intended, do it in the original code.");
+        return literal;
+    }
+
+    /**
+     * Quick check to see if the integral float regex could match. It requires a digit to be next to a '.'
+     */
+    static boolean containsDecimalPoint( String s ) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '.' && (i > 0 && isDigit(s.charAt(i - 1)) ||
+                    i + 1 < s.length() && isDigit(s.charAt(i + 1))))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Quick check to see if the float regex could match. It requires a digit to be followed by a '.'
+     */
+    static boolean containsFloat( String s ) {
+        for (int i = 1; i < s.length(); i++) {
+            if (s.charAt(i) == '.' && isDigit(s.charAt(i - 1)))
+                return true;
+        }
+        return false;
+    }
+
+    static boolean isDigit( char c ) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Finds the longest sequence of characters that must appear in any match of the regex. If the regex has
+     * features which make this difficult to determine then null is returned.
+     *
+     * @return The literal or null if one couldn't be found
+     */
+    static String requiredLiteral( String regex ) {
+        String longest = null;
+        var run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            // Anything that can make part of the pattern optional or repeat it is too hard
+            if ("|()[]{}?*+".indexOf(c) >= 0)
+                return null;
+
+            if (c == '\\') {
+                if (i + 1 == regex.length())
+                    return null;
+                char next = regex.charAt(++i);
+                if ("dDsSwWbBAGzZ".indexOf(next) >= 0) {
+                    // character classes and boundaries which don't consume any more of the pattern
+                    longest = longer(longest, run);
+                    run.setLength(0);
+                } else if (Character.isLetterOrDigit(next)) {
+                    // quoting, back references, hex, unicode, ... are not worth the effort
+                    return null;
+                } else {
+                    run.append(next);
+                }
+            } else if (c == '.' || c == '^' || c == '$') {
+                longest = longer(longest, run);
+                run.setLength(0);
+            } else {
+                run.append(c);
+            }
+        }
+        return longer(longest, run);
+    }
+
+    private static String longer( String longest, StringBuilder run ) {
+        if (run.length() == 0)
+            return longest;
+        if (longest == null || longest.length() < run.length())
+            return run.toString();
+        return longest;
+    }
+
+    /**
+     * A single regex replacement rule
+     */
+    static class Rule {
+        final Pattern pattern;
+        final String replacement;
+        // Literal which must be inside of the token for it to match. null if unknown
+        final String literal;
+        // If true then the regex and replacement are both plain text and a regex isn't needed
+        final boolean plainText;
+
+        Rule( String regex, String replacement ) {
+            this.pattern = Pattern.compile(regex);
+            this.replacement = replacement;
+            this.literal = requiredLiteral(regex);
+            this.plainText = literal != null && literal.equals(regex) &&
+                    replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0;
+        }
+
+        String apply( String s ) {
+            if (plainText)
+                return s.replace(literal, replacement);
+            if (literal != null && !s.contains(literal))
+                return s;
+            Matcher m = pattern.matcher(s);
+            return m.find() ? m.replaceAll(replacement) : s;
+        }
+    }
+
+    /**
+     * Replaces text if the token starts with the pattern
+     */
+    static class StartsWith {
+        final String pattern;
+        final String replacement;
+
+        StartsWith( String pattern, String replacement ) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * State needed to convert a single file using a {@link ConversionPlan}. A new context is created for each file
+ * and it should only be used by one thread at a time.
+ *
+ * @author Peter Abeles
+ */
+class ConversionContext {
+    // Rules and settings being applied
+    final ConversionPlan plan;
+
+    // Converted text is written here
+    StringBuilder out = new StringBuilder();
+    // Location of each token in the input text
+    TokenSpans tokens = new TokenSpans();
+    // Words inside of a comment or string
+    TokenSpans pieces = new TokenSpans();
+    final SourceLexer lexer;
+
+    // file specified custom list of ignore tokens
+    List<String> customIgnore = new ArrayList<>();
+    // file specified variables which stay as doubles
+    List<String> customAccumulators = new ArrayList<>();
+
+    // State of the conversion. Kept here so that it carries over from one chunk to the next when streaming
+    private State state;
+    private int totalTokens;
+    private int lineCharacterCount;
+    boolean skipFilterOnLine;
+    // true if inside of a statement which assigns a value to an accumulator
+    private boolean accumulatorStatement;
+    // Name of the file being converted. Only set while converting code, so it's null inside of comments and strings
+    private String codeFile;
+
+    // Number of characters which have been converted in previous chunks
+    private long outputOffset;
+    // Location in the output just after the class name. -1 if the class name hasn't been reached yet
+    private long classNameOffset;
+
+    // Number of times each rule modified a token. Only counted if not null
+    long[] ruleHits;
+    // Time in nanoseconds spent in each stage of the last conversion
+    long lexNano, rulesNano, augmentNano;
+    // Number of tokens that have been converted
+    long tokenCount;
+
+    ConversionContext( ConversionPlan plan ) {
+        this.plan = plan;
+        this.lexer = new SourceLexer(plan.language);
+    }
+
+    /**
+     * Converts the text of a file. Each stage is applied to the text in memory one after another.
+     * Directives in the file are found, it's broken into tokens, keywords are swapped, and then
+     * it's marked as generated.
+     *
+     * @param text Contents of the input file
+     * @param inputName Name of the input class
+     * @param outputName Name of the output class
+     * @return The converted text
+     */
+    CharSequence convert(CharSequence text, String inputName, String outputName) throws IOException {
+        long time0 = System.nanoTime();
+        scanForCustomization(text);
+
+        lexer.tokenize(text, tokens);
+        lexNano = System.nanoTime() - time0;
+
+        return convertLexed(text, inputName, outputName);
+    }
+
+    /**
+     * Uses the directives and tokens found by another context for the same text, so that the text doesn't need to
+     * be scanned again. Neither are modified while converting, so they can be shared.
+     */
+    void shareTokens(ConversionContext src) {
+        if (src.plan.language != plan.language)
+            throw new IllegalArgumentException("Tokens can only be shared between plans for the same language");
+        customIgnore = src.customIgnore;
+        customAccumulators = src.customAccumulators;
+        tokens = src.tokens;
+    }
+
+    /**
+     * Converts text which has already been scanned for directives and broken into tokens
+     *
+     * @see #convert(CharSequence, String, String)
+     */
+    CharSequence convertLexed(CharSequence text, String inputName, String outputName) throws IOException {
+        long time0 = System.nanoTime();
+        out = new StringBuilder(text.length() + text.length()/10);
+        convertTokens(text, tokens, inputName, outputName);
+        CharSequence converted = out;
+        long time1 = System.nanoTime();
+
+        // See if it needs to do some additional modifications
+        if (plan.language == Language.JAVA && plan.markAsAutoGenerated) {
+            converted = new AugmentJavaFiles().augment(converted.toString(), inputName);
+        }
+        rulesNano = time1 - time0;
+        augmentNano = System.nanoTime() - time1;
+        return converted;
+    }
+
+    /**
+     * Goes through each token and writes the converted token to 'out'
+     */
+    void convertTokens(CharSequence text, TokenSpans tokens, String inputName, String outputName) {
+        resetState();
+        tokenCount = tokens.size();
+        appendTokens(text, tokens, tokens.size(), inputName, outputName);
+    }
+
+    /**
+     * Converts text by reading and writing it in chunks so that the amount of memory used doesn't depend on the
+     * size of the file. A chunk always ends just before white space which isn't inside of a comment or string,
+     * so it's broken into the same tokens as when the entire file is converted at once, and the state is carried over to the next
+     * chunk, so the output is the same as when the entire file is converted at once. {@link #scanForCustomization}
+     * needs to be called first since directives can be anywhere in the file.
+     *
+     * If the file is to be marked as generated then the output is held in memory until the line which defines
+     * the class has been converted, since that's all {@link AugmentJavaFiles} needs to look at.
+     *
+     * @param reader Source of the input text
+     * @param writer Where the converted text is written to
+     * @param inputName Name of the input class
+     * @param outputName Name of the output class
+     * @param chunkSize Number of characters that are read at once
+     */
+    void convert(Reader reader, Writer writer, String inputName, String outputName, int chunkSize)
+            throws IOException {
+        resetState();
+        char[] buffer = new char[chunkSize];
+        out = new StringBuilder(chunkSize + chunkSize/10);
+        boolean augment = plan.language == Language.JAVA && plan.markAsAutoGenerated;
+        StringBuilder header = augment ? new StringBuilder() : null;
+
+        boolean retryHeader = true;
+        int size = 0;
+        boolean finished = false;
+        while (!finished) {
+            int found = reader.read(buffer, size, buffer.length - size);
+            if (found < 0)
+                finished = true;
+            else
+                size += found;
+            if (!finished && size < buffer.length)
+                continue;
+
+            CharSequence text = CharBuffer.wrap(buffer, 0, size);
+            lexer.tokenize(text, tokens);
+            int count = finished ? tokens.size() : findChunkEnd(tokens);
+            if (count == 0) {
+                // A single token fills the entire buffer
+                buffer = Arrays.copyOf(buffer, buffer.length*2);
+                continue;
+            }
+            int length = count == tokens.size() ? size : tokens.start(count);
+
+            out.setLength(0);
+            tokenCount += count;
+            appendTokens(text, tokens, count, inputName, outputName);
+            outputOffset += out.length();
+
+            if (header == null) {
+                writer.append(out);
+            } else {
+                header.append(out);
+                // See if the entire line with the class name has been converted
+                if (retryHeader && classNameOffset >= 0 && header.indexOf("\n", (int)classNameOffset) >= 0) {
+                    try {
+                        writer.append(new AugmentJavaFiles().augment(header.toString(), inputName));
+                        header = null;
+                    } catch (IOException e) {
+                        // The class couldn't be found in the header. Try again once everything has been converted
+                        retryHeader = false;
+                    }
+                }
+            }
+
+            System.arraycopy(buffer, length, buffer, 0, size - length);
+            size -= length;
+        }
+
+        if (header != null)
+            writer.append(new AugmentJavaFiles().augment(header.toString(), inputName));
+    }
+
+    /**
+     * Returns the number of tokens in the chunk. The chunk ends just before the last white space token since every
+     * token before it is known to be complete. It doesn't end after an identifier so that the token after a type,
+     * e.g. "double sum", can be seen. 0 is returned if there's no such token.
+     */
+    static int findChunkEnd(TokenSpans tokens) {
+        for (int i = tokens.size() - 1; i > 0; i--) {
+            if (tokens.kind(i) == TokenKind.WHITESPACE && tokens.kind(i - 1) != TokenKind.IDENTIFIER)
+                return i;
+        }
+        return 0;
+    }
+
+    private void resetState() {
+        state = State.INITIALIZING;
+        totalTokens = 0;
+        lineCharacterCount = 0;
+        skipFilterOnLine = false;
+        accumulatorStatement = false;
+        outputOffset = 0;
+        classNameOffset = -1;
+    }
+
+    /**
+     * Goes through the first 'count' tokens and writes the converted text to 'out'. The state from the previous
+     * call is used as the initial state.
+     *
+     * Rules are only applied to code and comments. Code is processed one word at a time, where a word is all the
+     * identifiers, numbers, and operators between white space, comments, and literals. This way rules which
+     * span more than one identifier, e.g. "Math.", still work. Literals are copied without modification unless
+     * strings aren't being ignored. Comments are broken up into words at white space and then converted
+     * so that references in the javadoc match the output.
+     */
+    private void appendTokens(CharSequence text, TokenSpans tokens, int count, String inputName, String outputName) {
+        // All the tokens before this index are inside of a word that has "/**/" in it and are not modified
+        int verbatimEnd = 0;
+        String fileName = inputName + "." + plan.language.suffix();
+
+        for (int idxToken = 0; idxToken < count; idxToken++) {
+            TokenKind kind = tokens.kind(idxToken);
+            int start = tokens.start(idxToken);
+            int end = tokens.end(idxToken);
+
+            if (kind == TokenKind.WHITESPACE) {
+                appendWhitespace(text, start, end);
+                continue;
+            }
+
+            if (idxToken >= verbatimEnd && kind != TokenKind.STRING && isStartOfPiece(tokens, idxToken))
+                verbatimEnd = findVerbatimEnd(text, tokens, idxToken);
+
+            if (idxToken < verbatimEnd) {
+                out.append(text, start, end);
+            } else if (kind == TokenKind.COMMENT) {
+                if (state == State.INITIALIZING && totalTokens == 0 && TokenSpans.startsWith(text, start, end, "/*")) {
+                    // Copyright and license at the top of the file are not modified
+                    out.append(text, start, end);
+                } else {
+                    appendPieces(text, start, end, true, TokenSpans.startsWith(text, start, end, "//"));
+                }
+            } else if (kind == TokenKind.STRING || kind == TokenKind.CHARACTER) {
+                appendPieces(text, start, end, !plan.ignoreStrings, false);
+            } else {
+                codeFile = fileName;
+                // Find the end of the word and if there's anything in it which a rule could modify
+                boolean hasWord = false;
+                int idxLast = idxToken;
+                while (idxLast < count && isCode(tokens.kind(idxLast))) {
+                    hasWord |= tokens.kind(idxLast) != TokenKind.OPERATOR;
+                    idxLast++;
+                }
+                int wordEnd = tokens.end(idxLast - 1);
+                boolean startOfPiece = isStartOfPiece(tokens, idxToken);
+                if (state == State.MAIN && !customAccumulators.isEmpty()) {
+                    appendWordWithAccumulators(text, tokens, idxToken, idxLast, count, startOfPiece);
+                } else {
+                    appendWord(text, start, wordEnd, hasWord, startOfPiece,
+                            startOfPiece && isEndOfPiece(tokens, idxLast), inputName, outputName);
+                }
+                idxToken = idxLast - 1;
+                codeFile = null;
+            }
+            totalTokens++;
+        }
+    }
+
+    private void appendWord(CharSequence text, int start, int end, boolean hasWord,
+                            boolean startOfPiece, boolean wholePiece, String inputName, String outputName) {
+        switch (state) {
+            case INITIALIZING:
+                if (wholePiece && (TokenSpans.equals(text, start, end, "class") ||
+                        TokenSpans.equals(text, start, end, "interface"))) {
+                    state = State.BEFORE_CLASS_NAME;
+                }
+                break;
+
+            case BEFORE_CLASS_NAME: // for the class name to be the same as the output file
+                if (!TokenSpans.startsWith(text, start, end, inputName)) {
+                    throw new IllegalArgumentException("Expected class name '" + inputName + "' but found '" +
+                            text.subSequence(start, end) + "'");
+                }
+                state = State.MAIN;
+                // In Java there could be Generics touching the class name E.g. class Foo<A>
+                // make sure we keep that extra info
+                out.append(outputName).append(text, start + inputName.length(), end);
+                classNameOffset = outputOffset + out.length();
+                return;
+
+            default:
+                break;
+        }
+
+        if (hasWord)
+            handleToken(text, start, end, startOfPiece);
+        else
+            out.append(text, start, end);
+    }
+
+    /**
+     * Writes the word made up of tokens[first:last] while keeping accumulators as doubles. The type in the
+     * declaration of an accumulator isn't modified and everywhere its value is read it's cast into the output type,
+     * unless it's read in a statement that assigns a value to an accumulator. Rules are applied to the text
+     * between the accumulators.
+     */
+    private void appendWordWithAccumulators(CharSequence text, TokenSpans tokens, int first, int last, int count,
+                                            boolean startOfPiece) {
+        int segmentStart = tokens.start(first);
+        boolean hasWord = false;
+        for (int i = first; i < last; i++) {
+            TokenKind kind = tokens.kind(i);
+            if (kind == TokenKind.OPERATOR) {
+                // Any of these characters will end the statement
+                int start = tokens.start(i), end = tokens.end(i);
+                if (TokenSpans.indexOf(text, start, end, ';') != -1 || TokenSpans.indexOf(text, start, end, '{') != -1 ||
+                        TokenSpans.indexOf(text, start, end, '}') != -1) {
+                    accumulatorStatement = false;
+                }
+                continue;
+            }
+
+            String prefix = kind == TokenKind.IDENTIFIER ? accumulatorPrefix(text, tokens, i, count) : null;
+            if (prefix == null) {
+                hasWord = true;
+                continue;
+            }
+
+            appendSegment(text, segmentStart, tokens.start(i), hasWord, startOfPiece);
+            if (!prefix.isEmpty() && !isAccumulator(text, tokens.start(i), tokens.end(i))) {
+                // Cast in front of the object the accumulator is in. The rules are still applied to the object
+                out.append(prefix);
+                segmentStart = tokens.start(i);
+                hasWord = true;
+                continue;
+            }
+            out.append(prefix).append(text, tokens.start(i), tokens.end(i));
+            segmentStart = tokens.end(i);
+            startOfPiece = false;
+            hasWord = false;
+        }
+        appendSegment(text, segmentStart, tokens.end(last - 1), hasWord, startOfPiece);
+    }
+
+    private void appendSegment(CharSequence text, int start, int end, boolean hasWord, boolean startOfPiece) {
+        if (start == end)
+            return;
+        if (hasWord)
+            handleToken(text, start, end, startOfPiece);
+        else
+            out.append(text, start, end);
+    }
+
+    /**
+     * Checks to see if the identifier is an accumulator, the type of an accumulator, or the start of an object which
+     * an accumulator is in
+     *
+     * @return null if it's not and rules should be applied like normal. Otherwise, the text which is
+     * written in front of it, e.g. a cast.
+     */
+    private String accumulatorPrefix(CharSequence text, TokenSpans tokens, int index, int count) {
+        int start = tokens.start(index), end = tokens.end(index);
+
+        // Type in the declaration. E.g. "double sum"
+        if (TokenSpans.equals(text, start, end, "double")) {
+            if (index + 2 < count && tokens.kind(index + 1) == TokenKind.WHITESPACE &&
+                    isAccumulator(text, tokens.start(index + 2), tokens.end(index + 2))) {
+                return "";
+            }
+            return null;
+        }
+
+        int prev = index > 0 && tokens.kind(index - 1) == TokenKind.WHITESPACE ? index - 2 : index - 1;
+        boolean afterDot = prev >= 0 && tokens.kind(prev) == TokenKind.OPERATOR &&
+                text.charAt(tokens.end(prev) - 1) == '.';
+
+        if (!isAccumulator(text, start, end)) {
+            // An accumulator in an object, e.g. "this.sum" or "other.sum", is treated like the accumulator on its
+            // own and the cast goes in front of the object
+            if (afterDot || prev >= 0 && TokenSpans.equals(text, tokens.start(prev), tokens.end(prev), "new"))
+                return null;
+            // The object is being created, e.g. "new Foo().sum"
+            int first = index;
+            if (TokenSpans.equals(text, start, end, "new") && index + 2 < count &&
+                    tokens.kind(index + 1) == TokenKind.WHITESPACE && tokens.kind(index + 2) == TokenKind.IDENTIFIER)
+                first = index + 2;
+            int last = findQualifiedAccumulator(text, tokens, first, count);
+            if (last < 0)
+                return null;
+            String prefix = accessPrefix(text, tokens, index, last, count);
+            return prefix.isEmpty() ? null : prefix;
+        }
+
+        // Already handled when the start of the object was found
+        if (afterDot)
+            return "";
+
+        return accessPrefix(text, tokens, index, index, count);
+    }
+
+    /**
+     * Checks to see if tokens[index] is the start of an expression like "a.b", "get().b", or "c[i].b" where b
+     * is an accumulator
+     *
+     * @return Index of the accumulator or -1 if it's not one
+     */
+    private int findQualifiedAccumulator(CharSequence text, TokenSpans tokens, int index, int count) {
+        // Number of brackets which have been opened and not closed
+        int depth = 0;
+        int last = -1;
+        for (int i = index + 1; i < count; i++) {
+            TokenKind kind = tokens.kind(i);
+            if (kind == TokenKind.OPERATOR) {
+                for (int j = tokens.start(i); j < tokens.end(i); j++) {
+                    char c = text.charAt(j);
+                    if (c == ')' || c == ']') {
+                        // A bracket which was opened before the expression ends it
+                        if (--depth < 0)
+                            return last;
+                    } else if (c == '(' || c == '[') {
+                        depth++;
+                        last = -1;
+                    } else if (depth == 0) {
+                        if (c != '.')
+                            return last;
+                        last = -1;
+                    }
+                }
+            } else if (depth == 0) {
+                // Every name has to come after a dot
+                if (kind != TokenKind.IDENTIFIER || tokens.kind(i - 1) != TokenKind.OPERATOR ||
+                        text.charAt(tokens.end(i - 1) - 1) != '.')
+                    return last;
+                last = isAccumulator(text, tokens.start(i), tokens.end(i)) ? i : -1;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Decides what's written in front of an accumulator which is made up of tokens[first:last], inclusive
+     */
+    private String accessPrefix(CharSequence text, TokenSpans tokens, int first, int last, int count) {
+        int prev = first > 0 && tokens.kind(first - 1) == TokenKind.WHITESPACE ? first - 2 : first - 1;
+        int next = last + 1 < count && tokens.kind(last + 1) == TokenKind.WHITESPACE ? last + 2 : last + 1;
+        boolean hasPrev = prev >= 0, hasNext = next < count;
+
+        // A function with the same name
+        if (hasNext && TokenSpans.startsWith(text, tokens.start(next), tokens.end(next), "("))
+            return "";
+
+        // The declaration or a value is being assigned to it
+        if (hasPrev && (TokenSpans.equals(text, tokens.start(prev), tokens.end(prev), "double") ||
+                endsWithIncrement(text, tokens.start(prev), tokens.end(prev))) ||
+                hasNext && isAssignment(text, tokens.start(next), tokens.end(next))) {
+            accumulatorStatement = true;
+            return "";
+        }
+
+        // It's being read and needs to be converted into the output type
+        return accumulatorStatement ? "" : "(" + plan.rules.profile.getPrimitive() + ")";
+    }
+
+    private boolean isAccumulator(CharSequence text, int start, int end) {
+        for (int i = 0; i < customAccumulators.size(); i++) {
+            if (TokenSpans.equals(text, start, end, customAccumulators.get(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /** Returns true if the operator starts with an assignment, e.g. "=", "+=", or "++" */
+    private static boolean isAssignment(CharSequence text, int start, int end) {
+        if (TokenSpans.startsWith(text, start, end, "++") || TokenSpans.startsWith(text, start, end, "--"))
+            return true;
+        if (TokenSpans.startsWith(text, start, end, "=="))
+            return false;
+        if (TokenSpans.startsWith(text, start, end, "="))
+            return true;
+        return end - start >= 2 && "+-*/".indexOf(text.charAt(start)) != -1 && text.charAt(start + 1) == '=';
+    }
+
+    private static boolean endsWithIncrement(CharSequence text, int start, int end) {
+        if (end - start < 2)
+            return false;
+        char a = text.charAt(end - 2), b = text.charAt(end - 1);
+        return a == b && (a == '+' || a == '-');
+    }
+
+    private void appendWhitespace(CharSequence text, int start, int end) {
+        if (TokenSpans.indexOf(text, start, end, '\n') != -1) {
+            lineCharacterCount = 0;
+            skipFilterOnLine = false;
+        }
+        lineCharacterCount += end - start;
+        out.append(text, start, end);
+    }
+
+    /**
+     * Breaks a comment or literal into words at white space and quotes then writes each word.
+     *
+     * @param convert If true the rules are applied to each word
+     * @param lineComment If true then it's a line comment and it will check for //NOFILTER
+     */
+    private void appendPieces(CharSequence text, int start, int end, boolean convert, boolean lineComment) {
+        ConvertFile32From64.readIntoTokens(text, start, end, pieces);
+        for (int i = 0; i < pieces.size(); i++) {
+            int pieceStart = pieces.start(i);
+            int pieceEnd = pieces.end(i);
+            int length = pieceEnd - pieceStart;
+            if (TokenSpans.isBlank(text, pieceStart, pieceEnd)) {
+                appendWhitespace(text, pieceStart, pieceEnd);
+            } else if (lineComment && lineCharacterCount == length + 1 &&
+                    TokenSpans.startsWith(text, pieceStart, pieceEnd, "//NOFILTER")) {
+                skipFilterOnLine = true;
+                out.append(text, pieceStart, pieceEnd);
+            } else if (convert) {
+                handleToken(text, pieceStart, pieceEnd, true);
+            } else {
+                out.append(text, pieceStart, pieceEnd);
+            }
+        }
+    }
+
+    /**
+     * A piece is a sequence of tokens that isn't broken up by white space or a string. Before there was a lexer
+     * text was broken up into pieces and some rules, e.g. "/**&#47;", still apply to entire pieces.
+     */
+    private static boolean isStartOfPiece(TokenSpans tokens, int index) {
+        if (index == 0)
+            return true;
+        TokenKind prev = tokens.kind(index - 1);
+        return prev == TokenKind.WHITESPACE || prev == TokenKind.STRING;
+    }
+
+    /** Returns true if the piece ends just before the token at 'index' */
+    private static boolean isEndOfPiece(TokenSpans tokens, int index) {
+        if (index >= tokens.size())
+            return true;
+        TokenKind kind = tokens.kind(index);
+        return kind == TokenKind.WHITESPACE || kind == TokenKind.STRING;
+    }
+
+    /**
+     * If the piece starting at 'index' contains the comment "/**&#47;" then the entire piece isn't modified.
+     *
+     * @return Index of the token after the piece if it contains "/**&#47;" or 'index' if it doesn't
+     */
+    private static int findVerbatimEnd(CharSequence text, TokenSpans tokens, int index) {
+        boolean found = false;
+        int i = index;
+        while (!isEndOfPiece(tokens, i)) {
+            if (tokens.kind(i) == TokenKind.COMMENT && TokenSpans.equals(text, tokens.start(i), tokens.end(i), "/**/"))
+                found = true;
+            i++;
+        }
+        return found ? i : index;
+    }
+
+    private static boolean isCode(TokenKind kind) {
+        return kind == TokenKind.IDENTIFIER || kind == TokenKind.NUMBER || kind == TokenKind.OPERATOR;
+    }
+
+    /**
+     * Searches the text for lines which start with //CUSTOM and applies the customization
+     */
+    void scanForCustomization(CharSequence text) {
+        customIgnore.clear();
+        customAccumulators.clear();
+
+        String prefix = "//CUSTOM";
+        int where = 0;
+        while ((where = TokenSpans.indexOf(text, where, text.length(), prefix)) != -1) {
+            int start = where;
+            where += prefix.length();
+            // It needs to be at the start of a line
+            if (start != 0 && text.charAt(start - 1) != '\n' && text.charAt(start - 1) != '\r')
+                continue;
+
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r')
+                end++;
+
+            if (end <= start + prefix.length() + 1)
+                continue;
+            parseCustomization(text.subSequence(start + prefix.length() + 1, end).toString());
+        }
+    }
+
+    /**
+     * Same as {@link #scanForCustomization(CharSequence)} but reads one line at a time
+     */
+    void scanForCustomization(BufferedReader reader) throws IOException {
+        customIgnore.clear();
+        customAccumulators.clear();
+
+        String prefix = "//CUSTOM";
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith(prefix) || line.length() <= prefix.length() + 1)
+                continue;
+            parseCustomization(line.substring(prefix.length() + 1));
+        }
+    }
+
+    private void parseCustomization(String directive) {
+        String[] words = directive.split(" ");
+        if (words[0].equals("ignore")) {
+            customIgnore.add(words[1]);
+        } else if (words[0].equals("accumulator")) {
+            for (int i = 1; i < words.length; i++) {
+                if (!words[i].isEmpty())
+                    customAccumulators.add(words[i].trim());
+            }
+        }
+    }
+
+    void handleToken(String s) {
+        handleToken(s, 0, s.length());
+    }
+
+    void handleToken(CharSequence text, int start, int end) {
+        handleToken(text, start, end, true);
+    }
+
+    /**
+     * Applies the rules to the token text[start:end] and writes the results. If no rule can modify the token
+     * then it's copied directly to the output without creating a String.
+     *
+     * @param startOfPiece If false then the token is attached to the end of a comment or literal and the
+     *                     "starts with" rules are not applied.
+     */
+    void handleToken(CharSequence text, int start, int end, boolean startOfPiece) {
+        boolean ignore = false;
+
+        for (int i = 0; i < customIgnore.size(); i++) {
+            if (TokenSpans.indexOf(text, start, end, customIgnore.get(i)) != -1) {
+                ignore = true;
+                break;
+            }
+        }
+
+        CompiledRules rules = plan.rules;
+        if (ignore || skipFilterOnLine || TokenSpans.indexOf(text, start, end, "/**/") != -1 ||
+                !rules.canModify(text, start, end, startOfPiece)) {
+            out.append(text, start, end);
+            return;
+        }
+
+        out.append(rules.apply(text.subSequence(start, end).toString(), startOfPiece, codeFile, ruleHits));
+    }
+
+    private enum State {
+        INITIALIZING,
+        BEFORE_CLASS_NAME,
+        MAIN
+    }
+}
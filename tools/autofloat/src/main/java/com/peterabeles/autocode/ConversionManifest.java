@@ -0,0 +1,136 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the hash of every source file the last time it was converted and a fingerprint of the rules which
+ * were used to convert it. If neither the source file nor the fingerprint has changed then the file doesn't need
+ * to be converted again. Used by {@link RecursiveConvert} when it's in incremental mode.
+ *
+ * The manifest is saved as a text file. The first line is the fingerprint and each line after that is the hash
+ * of a file followed by its path relative to the input directory.
+ *
+ * @author Peter Abeles
+ */
+public class ConversionManifest {
+    /** Name of the manifest file when a location hasn't been specified */
+    public static final String DEFAULT_NAME = ".autofloat_manifest";
+
+    private static final String HEADER = "fingerprint ";
+
+    // Fingerprint of the rules used to convert the files
+    private final String fingerprint;
+    // Hashes from the last time files were converted. Empty if the rules have changed
+    private final Map<String, String> previous = new ConcurrentHashMap<>();
+    // Hashes of files that have been converted or skipped in this run
+    private final Map<String, String> current = new ConcurrentHashMap<>();
+
+    public ConversionManifest( String fingerprint ) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Loads a manifest from disk. If the file doesn't exist or it was created with different rules then
+     * nothing is loaded and every file will be converted.
+     *
+     * @param file Location of the manifest
+     * @param fingerprint Fingerprint of the rules which are about to be used
+     */
+    public static ConversionManifest load( File file, String fingerprint ) throws IOException {
+        var manifest = new ConversionManifest(fingerprint);
+        if (!file.isFile())
+            return manifest;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER + fingerprint))
+                return manifest;
+
+            while ((line = reader.readLine()) != null) {
+                int split = line.indexOf(' ');
+                if (split <= 0)
+                    continue;
+                manifest.previous.put(line.substring(split + 1), line.substring(0, split));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the hash of every file which was seen since the manifest was loaded. Files which no longer exist
+     * are dropped.
+     */
+    public void save( File file ) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Can't create directory. " + parent.getPath());
+
+        try (var out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.print(HEADER + fingerprint + "\n");
+            // sorted so that the file is the same no matter which order files were converted in
+            for (Map.Entry<String, String> e : new TreeMap<>(current).entrySet()) {
+                out.print(e.getValue() + " " + e.getKey() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file had the same hash the last time it was converted
+     *
+     * @param key Path of the file relative to the input directory
+     * @param hash Hash of the file's contents
+     */
+    public boolean isUnchanged( String key, String hash ) {
+        return hash.equals(previous.get(key));
+    }
+
+    /**
+     * Records the hash of a file which has been converted or was already up to date
+     */
+    public void record( String key, String hash ) {
+        current.put(key, hash);
+    }
+
+    /**
+     * Keeps every file from the previous run unless it's recorded or removed later. Used when only some of the
+     * files are being updated, so the files which weren't looked at aren't dropped when it's saved.
+     */
+    public void retainPrevious() {
+        previous.forEach(current::putIfAbsent);
+    }
+
+    /**
+     * Removes a file which has been deleted. If the key is a directory then every file inside of it is removed.
+     */
+    public void remove( String key ) {
+        current.remove(key);
+        String directory = key + "/";
+        current.keySet().removeIf(k -> k.startsWith(directory));
+    }
+
+    /**
+     * Computes the hash of the file's contents
+     */
+    public static String hash( SourceText text ) {
+        MessageDigest digest = ConversionPlan.createDigest();
+        digest.update(text.buffer.duplicate());
+        return ConversionPlan.toHex(digest.digest());
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Measurements collected while converting files. For every output file it records the number of bytes read and
+ * written, the number of tokens, and how long each stage took. For every target it records how many tokens each
+ * replacement rule has modified, which makes it easy to find slow files and rules which never do anything.
+ * Files can be recorded from multiple threads at the same time.
+ *
+ * A report is saved with {@link #save(File)}. If the file ends with ".json" then everything is saved in one
+ * JSON document. Otherwise the files are saved as CSV and the rule hits are saved as CSV in a second file
+ * with "_rules" added to its name.
+ *
+ * @author Peter Abeles
+ */
+public class ConversionMetrics {
+    // Measurements of each output file
+    private final Queue<FileMetrics> files = new ConcurrentLinkedQueue<>();
+    // Rule hits for each target. Synchronized on 'targets'
+    private final Map<ConversionPlan, TargetHits> targets = new LinkedHashMap<>();
+
+    /**
+     * Specifies the name of a target. Targets which are not added are given a name when their first hits are added.
+     */
+    public void addTarget( String name, ConversionPlan plan ) {
+        synchronized (targets) {
+            targets.put(plan, new TargetHits(name, plan.rules.ruleNames()));
+        }
+    }
+
+    /** Records the measurements for a single output file */
+    public void add( FileMetrics metrics ) {
+        files.add(metrics);
+    }
+
+    /**
+     * Adds the number of times each rule modified a token while converting a file
+     *
+     * @param hits Hits in the same order as {@link CompiledRules#ruleNames()}
+     */
+    void addRuleHits( ConversionPlan plan, long[] hits ) {
+        synchronized (targets) {
+            TargetHits target = targets.computeIfAbsent(plan,
+                    p -> new TargetHits("target" + targets.size(), p.rules.ruleNames()));
+            for (int i = 0; i < hits.length; i++) {
+                target.hits[i] += hits[i];
+            }
+        }
+    }
+
+    /** Returns the measurements of every file sorted by the input file and then output file */
+    public List<FileMetrics> getFiles() {
+        List<FileMetrics> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing((FileMetrics m) -> m.input).thenComparing(m -> m.output));
+        return sorted;
+    }
+
+    /**
+     * Returns the number of tokens each rule modified in a target
+     *
+     * @return Map from the name of the rule to the number of hits. Empty if the target is unknown.
+     */
+    public Map<String, Long> getRuleHits( String target ) {
+        Map<String, Long> found = new LinkedHashMap<>();
+        synchronized (targets) {
+            for (TargetHits t : targets.values()) {
+                if (!t.name.equals(target))
+                    continue;
+                for (int i = 0; i < t.rules.size(); i++) {
+                    found.merge(t.rules.get(i), t.hits[i], Long::sum);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Saves the report. JSON if the file ends with ".json" and CSV otherwise.
+     */
+    public void save( File file ) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Can't create directory. " + parent.getPath());
+
+        if (file.getName().endsWith(".json")) {
+            saveJson(file);
+        } else {
+            saveFilesCsv(file);
+            saveRulesCsv(rulesFile(file));
+        }
+    }
+
+    /** Where the rule hits are saved when the report is a CSV file, e.g. "metrics.csv" becomes "metrics_rules.csv" */
+    public static File rulesFile( File file ) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String rules = dot > 0 ? name.substring(0, dot) + "_rules" + name.substring(dot) : name + "_rules";
+        return new File(file.getAbsoluteFile().getParentFile(), rules);
+    }
+
+    private void saveFilesCsv( File file ) throws IOException {
+        try (var out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.print("input,output,bytes_in,bytes_out,tokens,streamed,written," +
+                    "read_ms,lex_ms,rules_ms,augment_ms,write_ms,total_ms\n");
+            for (FileMetrics m : getFiles()) {
+                out.print(csv(m.input) + "," + csv(m.output) + "," + m.bytesIn + "," + m.bytesOut + "," +
+                        m.tokens + "," + m.streamed + "," + m.written + "," +
+                        ms(m.readNano) + "," + ms(m.lexNano) + "," + ms(m.rulesNano) + "," +
+                        ms(m.augmentNano) + "," + ms(m.writeNano) + "," + ms(m.totalNano()) + "\n");
+            }
+        }
+    }
+
+    private void saveRulesCsv( File file ) throws IOException {
+        try (var out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.print("target,rule,hits\n");
+            synchronized (targets) {
+                for (TargetHits t : targets.values()) {
+                    for (int i = 0; i < t.rules.size(); i++) {
+                        out.print(csv(t.name) + "," + csv(t.rules.get(i)) + "," + t.hits[i] + "\n");
+                    }
+                }
+            }
+        }
+    }
+
+    private void saveJson( File file ) throws IOException {
+        try (var out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.print("{\n  \"files\": [");
+            List<FileMetrics> sorted = getFiles();
+            for (int i = 0; i < sorted.size(); i++) {
+                FileMetrics m = sorted.get(i);
+                out.print(i == 0 ? "\n" : ",\n");
+                out.print("    {\"input\": " + json(m.input) + ", \"output\": " + json(m.output) +
+                        ", \"bytes_in\": " + m.bytesIn + ", \"bytes_out\": " + m.bytesOut +
+                        ", \"tokens\": " + m.tokens + ", \"streamed\": " + m.streamed +
+                        ", \"written\": " + m.written + ", \"read_ms\": " + ms(m.readNano) +
+                        ", \"lex_ms\": " + ms(m.lexNano) + ", \"rules_ms\": " + ms(m.rulesNano) +
+                        ", \"augment_ms\": " + ms(m.augmentNano) + ", \"write_ms\": " + ms(m.writeNano) +
+                        ", \"total_ms\": " + ms(m.totalNano()) + "}");
+            }
+            out.print("\n  ],\n  \"rules\": [");
+            boolean first = true;
+            synchronized (targets) {
+                for (TargetHits t : targets.values()) {
+                    for (int i = 0; i < t.rules.size(); i++) {
+                        out.print(first ? "\n" : ",\n");
+                        first = false;
+                        out.print("    {\"target\": " + json(t.name) + ", \"rule\": " + json(t.rules.get(i)) +
+                                ", \"hits\": " + t.hits[i] + "}");
+                    }
+                }
+            }
+            out.print("\n  ]\n}\n");
+        }
+    }
+
+    private static String ms( long nano ) {
+        return String.format(Locale.ROOT, "%.3f", nano*1e-6);
+    }
+
+    private static String csv( String value ) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json( String value ) {
+        var builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int)c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Measurements for a single output file. Times are in nanoseconds. When a file is converted into several
+     * targets it's only read and broken into tokens once, so those times are only recorded for the first target.
+     */
+    public static class FileMetrics {
+        /** Path of the input file */
+        public String input = "";
+        /** Path of the output file */
+        public String output = "";
+        /** Size of the input file */
+        public long bytesIn;
+        /** Size of the converted text */
+        public long bytesOut;
+        /** Number of tokens the input was broken into */
+        public long tokens;
+        /** true if the file was converted in streaming mode. Streaming time is recorded as rules time */
+        public boolean streamed;
+        /** true if the output file was written to. false if it was already up to date */
+        public boolean written;
+        public long readNano;
+        public long lexNano;
+        public long rulesNano;
+        public long augmentNano;
+        public long writeNano;
+
+        public long totalNano() {
+            return readNano + lexNano + rulesNano + augmentNano + writeNano;
+        }
+    }
+
+    /** Total rule hits for one target */
+    private static class TargetHits {
+        final String name;
+        final List<String> rules;
+        final long[] hits;
+
+        TargetHits( String name, List<String> rules ) {
+            this.name = name;
+            this.rules = rules;
+            this.hits = new long[rules.size()];
+        }
+    }
+}
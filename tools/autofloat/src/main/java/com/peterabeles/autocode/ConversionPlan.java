@@ -0,0 +1,306 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable set of rules and settings created by {@link ConvertFile32From64#createPlan()}. Nothing inside
+ * of the plan is modified while a file is converted, so the same plan can be used to convert any number of
+ * files at the same time from different threads. State for an individual file is kept inside of a
+ * {@link ConversionContext} which is discarded once the file has been converted.
+ *
+ * @author Peter Abeles
+ */
+public class ConversionPlan {
+    final CompiledRules rules;
+    final Language language;
+    final boolean ignoreStrings;
+    final boolean markAsAutoGenerated;
+    // Files larger than this are converted in streaming mode
+    final long streamingThreshold;
+    // Number of characters read at once in streaming mode
+    final int streamChunkSize;
+    // Hash of everything which can change the output
+    final String fingerprint;
+
+    ConversionPlan( CompiledRules rules, Language language, boolean ignoreStrings, boolean markAsAutoGenerated,
+                    long streamingThreshold, int streamChunkSize ) {
+        this.rules = rules;
+        this.language = language;
+        this.ignoreStrings = ignoreStrings;
+        this.markAsAutoGenerated = markAsAutoGenerated;
+        this.streamingThreshold = streamingThreshold;
+        this.streamChunkSize = streamChunkSize;
+        this.fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Returns a plan with the same rules and settings which is for the specified language. The converter the
+     * plan came from isn't modified.
+     */
+    ConversionPlan withLanguage( Language language ) {
+        if (language == this.language)
+            return this;
+        return new ConversionPlan(rules, language, ignoreStrings, markAsAutoGenerated, streamingThreshold,
+                streamChunkSize);
+    }
+
+    /**
+     * Applies the keyword replacements to the input file and saves the results to the output file
+     *
+     * @param inputFile  File that is to be transformed. Unmodified.
+     * @param outputFile Where results of the transformation are written to.  Modified
+     * @throws IOException If something goes wrong this is thrown.
+     */
+    public void process( File inputFile, File outputFile ) throws IOException {
+        if (inputFile.length() > streamingThreshold)
+            processStreaming(inputFile, outputFile);
+        else
+            process(SourceText.read(inputFile), inputFile, outputFile);
+    }
+
+    /**
+     * Converts text which has already been read from the input file. The output file is only written to if
+     * its contents have changed.
+     *
+     * @return true if the output file was written to
+     */
+    boolean process( SourceText text, File inputFile, File outputFile ) throws IOException {
+        if (text.length() > streamingThreshold)
+            return processStreaming(inputFile, outputFile);
+        String inputName = ConvertFile32From64.fileNameNoExtension(inputFile, language);
+        String outputName = ConvertFile32From64.fileNameNoExtension(outputFile, language);
+        return SourceText.writeIfChanged(createContext().convert(text, inputName, outputName), outputFile);
+    }
+
+    /**
+     * Converts the same file using several plans, e.g. to create a float and a half precision version. The file
+     * is only scanned for directives and broken into tokens once, then each plan creates its own output from
+     * the same tokens. All the plans must be for the same language.
+     *
+     * @param plans Plans which are applied to the text
+     * @param text Contents of the input file
+     * @param inputFile The file which 'text' was read from
+     * @param outputFiles Where the output of each plan is written to
+     * @param metrics (Output) If not null then measurements of each output file are added to it
+     * @param readNano Time it took to read the input file. Added to the metrics of the first output file.
+     * @return Number of output files which were written to
+     */
+    static int process( List<ConversionPlan> plans, SourceText text, File inputFile, List<File> outputFiles,
+                        ConversionMetrics metrics, long readNano ) throws IOException {
+        if (plans.size() != outputFiles.size())
+            throw new IllegalArgumentException("Each plan must have one output file");
+
+        ConversionContext shared = null;
+        int written = 0;
+        for (int i = 0; i < plans.size(); i++) {
+            ConversionPlan plan = plans.get(i);
+            File outputFile = outputFiles.get(i);
+            ConversionContext context = plan.createContext();
+            if (metrics != null)
+                context.ruleHits = new long[plan.rules.ruleCount()];
+
+            boolean streamed = text.length() > plan.streamingThreshold;
+            boolean modified;
+            long bytesOut, writeNano = 0;
+            if (streamed) {
+                long time0 = System.nanoTime();
+                modified = plan.processStreaming(inputFile, outputFile, context);
+                context.rulesNano = System.nanoTime() - time0;
+                bytesOut = outputFile.length();
+            } else {
+                if (shared == null) {
+                    long time0 = System.nanoTime();
+                    context.scanForCustomization(text);
+                    context.lexer.tokenize(text, context.tokens);
+                    context.lexNano = System.nanoTime() - time0;
+                    shared = context;
+                } else {
+                    context.shareTokens(shared);
+                }
+                String inputName = ConvertFile32From64.fileNameNoExtension(inputFile, plan.language);
+                String outputName = ConvertFile32From64.fileNameNoExtension(outputFile, plan.language);
+                CharSequence converted = context.convertLexed(text, inputName, outputName);
+                long time0 = System.nanoTime();
+                modified = SourceText.writeIfChanged(converted, outputFile);
+                writeNano = System.nanoTime() - time0;
+                bytesOut = converted.length();
+            }
+            written += modified ? 1 : 0;
+
+            if (metrics == null)
+                continue;
+            var m = new ConversionMetrics.FileMetrics();
+            m.input = inputFile.getPath();
+            m.output = outputFile.getPath();
+            m.bytesIn = text.length();
+            m.bytesOut = bytesOut;
+            m.tokens = context.tokenCount;
+            m.streamed = streamed;
+            m.written = modified;
+            m.readNano = i == 0 ? readNano : 0;
+            m.lexNano = context.lexNano;
+            m.rulesNano = context.rulesNano;
+            m.augmentNano = context.augmentNano;
+            m.writeNano = writeNano;
+            metrics.add(m);
+            metrics.addRuleHits(plan, context.ruleHits);
+        }
+        return written;
+    }
+
+    /**
+     * Converts the file while only keeping a small part of it in memory at any one time. The output is identical
+     * to {@link #process(File, File)}. The input is read twice, first to find directives and then to convert it.
+     * Output is written to a temporary file which replaces the output file only if they are different.
+     *
+     * @return true if the output file was written to
+     */
+    public boolean processStreaming( File inputFile, File outputFile ) throws IOException {
+        return processStreaming(inputFile, outputFile, createContext());
+    }
+
+    private boolean processStreaming( File inputFile, File outputFile, ConversionContext context ) throws IOException {
+        String inputName = ConvertFile32From64.fileNameNoExtension(inputFile, language);
+        String outputName = ConvertFile32From64.fileNameNoExtension(outputFile, language);
+        Charset charset = ConvertFile32From64.CHARSET;
+
+        try (BufferedReader reader = Files.newBufferedReader(inputFile.toPath(), charset)) {
+            context.scanForCustomization(reader);
+        }
+
+        Path temp = Files.createTempFile(outputFile.getAbsoluteFile().getParentFile().toPath(),
+                outputFile.getName(), ".tmp");
+        try {
+            try (Reader reader = new InputStreamReader(Files.newInputStream(inputFile.toPath()), charset);
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), charset))) {
+                context.convert(reader, writer, inputName, outputName, streamChunkSize);
+            }
+            if (SourceText.isSameFile(temp.toFile(), outputFile))
+                return false;
+            Files.move(temp, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Converts source code which is already in memory. Nothing is read from or written to disk.
+     *
+     * @param source Source code which is to be converted. Not modified.
+     * @param classNameOld Name of the class in the source, e.g. "Foo_F64"
+     * @param classNameNew Name of the class in the output, e.g. "Foo_F32"
+     * @return The converted source code
+     * @throws IllegalArgumentException If the source couldn't be parsed when marking it as generated
+     */
+    public String convert( CharSequence source, String classNameOld, String classNameNew ) {
+        try {
+            return createContext().convert(source, classNameOld, classNameNew).toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the state needed to convert a single file
+     */
+    ConversionContext createContext() {
+        return new ConversionContext(this);
+    }
+
+    /**
+     * Computes a hash of all the rules and settings. If two plans have the same fingerprint then they will
+     * produce the same output.
+     */
+    private String computeFingerprint() {
+        var builder = new StringBuilder();
+        builder.append(language).append('|').append(ignoreStrings).append('|').append(markAsAutoGenerated);
+        builder.append('|').append(rules.profile);
+        for (CompiledRules.Rule r : rules.replacements) {
+            builder.append("|R").append(r.pattern.pattern()).append('\0').append(r.replacement);
+        }
+        for (CompiledRules.StartsWith r : rules.startsWith) {
+            builder.append("|S").append(r.pattern).append('\0').append(r.replacement);
+        }
+        for (CompiledRules.Rule r : rules.replacementsAfter) {
+            builder.append("|A").append(r.pattern.pattern()).append('\0').append(r.replacement);
+        }
+        // sorted since the order the functions were added in doesn't matter
+        for (Map.Entry<String, String> e : new TreeMap<>(rules.mathFunctions).entrySet()) {
+            builder.append("|M").append(e.getKey()).append('\0').append(e.getValue());
+        }
+        return hashToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String hashToString( byte[] data ) {
+        MessageDigest digest = createDigest();
+        digest.update(data);
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String toHex( byte[] data ) {
+        var builder = new StringBuilder(data.length*2);
+        for (byte b : data) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Hash of all the rules and settings. If the fingerprint hasn't changed then the same input will produce
+     * the same output.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+
+    public boolean isIgnoreStrings() {
+        return ignoreStrings;
+    }
+
+    public boolean isMarkAsAutoGenerated() {
+        return markAsAutoGenerated;
+    }
+
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+}
@@ -7,9 +7,16 @@ package com.peterabeles.autocode;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.io.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Converts a file written for 64bit numbers into 32bit numbers by replacing keywords.
@@ -17,14 +24,21 @@ import java.util.List;
  * @author Peter Abeles
  */
 public class ConvertFile32From64 {
-    InputStream in;
-    PrintStream out;
+    /**
+     * Files are read and written as ISO-8859-1 so that each byte maps to one char. Everything the converter
+     * looks for is ASCII and any other characters are copied to the output unmodified.
+     */
+    public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
 
-    // file specified custom list of ignore tokens
-    List<String> customIgnore = new ArrayList<>();
     List<Replacement> replacements = new ArrayList<>();
     List<Replacement> replaceStartsWith = new ArrayList<>();
     List<Replacement> replacementsAfter = new ArrayList<>();
+    // Name of a Math function and what a call to it is replaced with
+    Map<String, String> mathFunctions = new LinkedHashMap<>();
+    // Rules compiled into their final form. Set to null when a rule is added
+    CompiledRules compiled;
+    // The most recently created plan. Reused until a rule or setting changes
+    ConversionPlan plan;
 
     /**
      * If it encounters a string ignore it and don't filter anything inside
@@ -33,14 +47,33 @@ public class ConvertFile32From64 {
     @Setter
     boolean ignoreStrings = true;
 
-    boolean skipFilterOnLine;
     /**
      * If true then the files will be marked as being auto generated code. These files are often skipped my code
      * validation tools.
      */
     public boolean markAsAutoGenerated = false;
+
+    /**
+     * Files which are larger than this number of bytes are converted in streaming mode, which reads and writes
+     * the file in small chunks so that memory usage doesn't grow with the size of the file.
+     */
+    @Getter
+    @Setter
+    long streamingThreshold = Long.MAX_VALUE;
+
+    /**
+     * Number of characters which are read at once in streaming mode. It doesn't change the output.
+     */
+    @Getter
+    int streamChunkSize = 64*1024;
+
     private Language language = Language.JAVA;
 
+    /**
+     * Type the code is converted into. Determines how floating point literals are rewritten.
+     */
+    private TargetProfile profile = TargetProfile.F32;
+
     /**
      * Constructor
      *
@@ -48,24 +81,19 @@ public class ConvertFile32From64 {
      */
     public ConvertFile32From64(Language language, boolean addDefaultReplacements) {
         if (addDefaultReplacements) {
-            if (language == Language.JAVA) {
-//            replacePattern("/\\*\\*/double", "FIXED_DOUBLE");
-                replacePattern("double", "float");
-                replacePattern("Double", "Float");
-                replacePattern("_F64", "_F32");
-
-                replaceStartsWith("Math.", "(float)Math.");
-                replaceStartsWith("-Math.", "(float)-Math.");
-
-                replacePatternAfter("FIXED_DOUBLE", "/\\*\\*/double");
-            } else if (language == Language.KOTLIN) {
-                replacePattern("Double", "Float");
-                replacePattern("_F64", "_F32");
-                replacePatternAfter("FIXED_DOUBLE", "/\\*\\*/Double");
-            }
+            profile.addDefaultReplacements(this, language);
         }
     }
 
+    /**
+     * Creates a converter with the default replacement patterns for the specified type, e.g.
+     * {@link TargetProfile#I32} to convert double into int.
+     */
+    public ConvertFile32From64(Language language, TargetProfile profile) {
+        this.profile = profile;
+        profile.addDefaultReplacements(this, language);
+    }
+
     public ConvertFile32From64(boolean addDefaultReplacements) {
         this(Language.JAVA, addDefaultReplacements);
     }
@@ -76,31 +104,49 @@ public class ConvertFile32From64 {
         return fileName.substring(0, fileName.length() - langLength);
     }
 
-    List<String> readIntoTokens() throws IOException {
-        List<String> tokens = new ArrayList<>();
-        int n;
-        StringBuilder s = new StringBuilder(1024);
+    /**
+     * Breaks the text up into tokens of white space and words. Words are then split further at quotes.
+     *
+     * @param text The text
+     * @param tokens (Output) Location of each token in the text
+     */
+    static void readIntoTokens(CharSequence text, TokenSpans tokens) {
+        readIntoTokens(text, 0, text.length(), tokens);
+    }
+
+    /**
+     * Same as {@link #readIntoTokens(CharSequence, TokenSpans)} but only for text[begin:end]
+     */
+    static void readIntoTokens(CharSequence text, int begin, int end, TokenSpans tokens) {
+        tokens.reset();
+        int start = begin;
         boolean prevChar = true;
-        while ((n = in.read()) != -1) {
-            char c = (char) n;
-            if (Character.isWhitespace(c)) {
-                if (prevChar && s.length() > 0) {
-                    tokens.add(s.toString());
-                    s.delete(0, s.length());
-                }
-                s.append(c);
-
-                prevChar = false;
-            } else {
-                if (!prevChar) {
-                    tokens.add(s.toString());
-                    s.delete(0, s.length());
-                }
-                s.append(c);
-                prevChar = true;
+        for (int i = begin; i < end; i++) {
+            boolean whitespace = Character.isWhitespace(text.charAt(i));
+            if (whitespace == prevChar && i > start) {
+                if (prevChar)
+                    handleQuoteTokens(text, start, i, tokens);
+                else
+                    tokens.add(start, i);
+                start = i;
             }
+            prevChar = !whitespace;
+        }
+        if (start < end) {
+            if (prevChar)
+                handleQuoteTokens(text, start, end, tokens);
+            else
+                tokens.add(start, end);
+        }
+    }
+
+    static List<String> readIntoTokens(CharSequence text) {
+        var spans = new TokenSpans();
+        readIntoTokens(text, spans);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i++) {
+            tokens.add(spans.get(text, i));
         }
-        tokens.add(s.toString());
         return tokens;
     }
 
@@ -109,49 +155,60 @@ public class ConvertFile32From64 {
      */
     static List<String> handleQuoteTokens(List<String> input) {
         List<String> output = new ArrayList<>();
+        var spans = new TokenSpans();
 
         for (int idxInput = 0; idxInput < input.size(); idxInput++) {
             String tokenIn = input.get(idxInput);
-
-            int idx1 = tokenIn.indexOf('"');
-            if (idx1 == -1) {
-                // there's no quote in this token
-                output.add(tokenIn);
-                continue;
+            spans.reset();
+            handleQuoteTokens(tokenIn, 0, tokenIn.length(), spans);
+            for (int i = 0; i < spans.size(); i++) {
+                output.add(spans.get(tokenIn, i));
             }
+        }
 
-            int idx0 = 0;
-            if (idx1 != 0) {
-                // Find the first non-escaped quote
-                while (idx1 != -1 && tokenIn.charAt(idx1 - 1) == '\\') {
-                    idx1 = tokenIn.indexOf('"', idx1 + 1);
-                }
-
-                // They are all escaped
-                if (idx1 == -1) {
-                    output.add(tokenIn);
-                    continue;
-                }
-            } else {
-                output.add("\"");
-                idx0 = idx1 + 1;
-                idx1 = tokenIn.indexOf('"', idx0);
+        return output;
+    }
+
+    /**
+     * Splits the word text[start:end] at the beginning and end of strings and adds the pieces to the output
+     */
+    static void handleQuoteTokens(CharSequence text, int start, int end, TokenSpans output) {
+        int idx1 = TokenSpans.indexOf(text, start, end, '"');
+        if (idx1 == -1) {
+            // there's no quote in this token
+            output.add(start, end);
+            return;
+        }
+
+        int idx0 = start;
+        if (idx1 != start) {
+            // Find the first non-escaped quote
+            while (idx1 != -1 && text.charAt(idx1 - 1) == '\\') {
+                idx1 = TokenSpans.indexOf(text, idx1 + 1, end, '"');
             }
 
-            while (idx1 != -1) {
-                // See if it's not escaped
-                if (tokenIn.charAt(idx1 - 1) != '\\') {
-                    output.add(tokenIn.substring(idx0, idx1));
-                    output.add("\"");
-                    idx0 = idx1 + 1;
-                }
-                idx1 = tokenIn.indexOf('"', idx1 + 1);
+            // They are all escaped
+            if (idx1 == -1) {
+                output.add(start, end);
+                return;
             }
-            if (idx0 < tokenIn.length())
-                output.add(tokenIn.substring(idx0));
+        } else {
+            output.add(idx1, idx1 + 1);
+            idx0 = idx1 + 1;
+            idx1 = TokenSpans.indexOf(text, idx0, end, '"');
         }
 
-        return output;
+        while (idx1 != -1) {
+            // See if it's not escaped
+            if (text.charAt(idx1 - 1) != '\\') {
+                output.add(idx0, idx1);
+                output.add(idx1, idx1 + 1);
+                idx0 = idx1 + 1;
+            }
+            idx1 = TokenSpans.indexOf(text, idx1 + 1, end, '"');
+        }
+        if (idx0 < end)
+            output.add(idx0, end);
     }
 
     /**
@@ -162,118 +219,48 @@ public class ConvertFile32From64 {
      * @throws IOException If something goes wrong this is thrown.
      */
     public void process(File inputFile, File outputFile) throws IOException {
-        scanForCustomization(inputFile);
-
-        try {
-            in = new FileInputStream(inputFile);
-            out = new PrintStream(outputFile);
-
-            List<String> tokens = handleQuoteTokens(readIntoTokens());
-
-            State state = State.INITIALIZING;
-            int totalTokens = 0;
-            boolean insideBlockComments = false;
-            boolean insideLineComment = false;
-            boolean insideString = false;
-
-            int lineCharacterCount = 0;
-            skipFilterOnLine = false;
-
-            for (int idxToken = 0; idxToken < tokens.size(); idxToken++) {
-                String token = tokens.get(idxToken);
-                if (token.isBlank()) {
-                    if (token.contains("\n")) {
-                        lineCharacterCount = 0;
-                        insideLineComment = false;
-                        skipFilterOnLine = false;
-                    }
-                    lineCharacterCount += token.length();
-                    out.print(token);
-                    out.flush();
-                    continue;
-                }
-
-                boolean skip = false;
-                if (insideBlockComments) {
-                    if (token.startsWith("*/"))
-                        insideBlockComments = false;
-                }
-                if (!(insideBlockComments || insideLineComment)) {
-                    if (token.startsWith("/*"))
-                        insideBlockComments = true;
-                    else if (token.startsWith("//"))
-                        insideLineComment = true;
-                }
-
-                if (insideLineComment && lineCharacterCount == token.length() + 1) {
-                    if (token.startsWith("//NOFILTER")) {
-                        skipFilterOnLine = true;
-                        skip = true;
-                    }
-                }
-
-                if (ignoreStrings && !insideLineComment && !insideBlockComments) {
-                    if (token.equals("\"")) {
-                        insideString = !insideString;
-                    }
-                }
-                if (insideString) {
-                    skip = true;
-                }
-
-                if (!skip) {
-                    switch (state) {
-                        case INITIALIZING:
-                            if (totalTokens == 0 && token.startsWith("/*")) {
-                                state = State.INSIDE_COPYRIGHT;
-                            } else if (!(insideBlockComments || insideLineComment) &&
-                                    (token.compareTo("class") == 0 || token.compareTo("interface") == 0)) {
-                                state = State.BEFORE_CLASS_NAME;
-                            }
-                            handleToken(token);
-                            break;
-
-                        case INSIDE_COPYRIGHT:
-                            if (token.compareTo("*/") == 0) {
-                                state = State.INITIALIZING;
-                            }
-                            out.print(token);
-                            break;
-
-                        case BEFORE_CLASS_NAME: // for the class name to be the same as the output file
-                            state = State.MAIN;
-                            // In Java there could be Generics touching the class name E.g. class Foo<A>
-                            // make sure we keep that extra info
-                            String inputName = fileNameNoExtension(inputFile, language);
-                            String outputName = fileNameNoExtension(outputFile, language);
-                            out.print(outputName + token.substring(inputName.length()));
-                            break;
-
-                        case MAIN:
-                            handleToken(token);
-                            break;
-                    }
-                } else {
-                    out.print(token);
-                }
-                totalTokens++;
-            }
-        } finally {
-            out.close();
-            in.close();
-            // Crashes when run in travis-ci with no error message.  Maybe file descriptors
-            // are running out because the GC isn't running?
-            System.gc();
+        createPlan().process(inputFile, outputFile);
+    }
+
+    /**
+     * Reads the //CUSTOM directives in the file.
+     *
+     * @deprecated Directives are now read by each conversion and stored with that file's state in
+     * {@link ConversionContext}, so calling this before {@link #process} isn't needed and has no effect on it.
+     */
+    @Deprecated
+    public void scanForCustomization(File inputFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(inputFile.toPath(), CHARSET)) {
+            createPlan().createContext().scanForCustomization(reader);
         }
+    }
+
+    /**
+     * Converts source code which is already in memory. See {@link ConversionPlan#convert}.
+     *
+     * @param source Source code which is to be converted. Not modified.
+     * @param classNameOld Name of the class in the source, e.g. "Foo_F64"
+     * @param classNameNew Name of the class in the output, e.g. "Foo_F32"
+     * @return The converted source code
+     */
+    public String convert(CharSequence source, String classNameOld, String classNameNew) {
+        return createPlan().convert(source, classNameOld, classNameNew);
+    }
 
-        // See if it needs to do some additional modifications
-        // TODO speed up by never saving to disk the first time
-        if (language == Language.JAVA && markAsAutoGenerated) {
-            in = new AugmentJavaFiles().augment(new FileInputStream(outputFile), fileNameNoExtension(inputFile, language));
-            OutputStream out = new FileOutputStream(outputFile);
-            copy(in, out);
-            out.close();
+    /**
+     * Freezes the current rules and settings into a plan. The plan is immutable and can be used by
+     * any number of threads at the same time. If nothing has changed since the last call then the same
+     * plan is returned.
+     */
+    public ConversionPlan createPlan() {
+        CompiledRules rules = compiledRules();
+        if (plan == null || plan.rules != rules || plan.language != language ||
+                plan.ignoreStrings != ignoreStrings || plan.markAsAutoGenerated != markAsAutoGenerated ||
+                plan.streamingThreshold != streamingThreshold || plan.streamChunkSize != streamChunkSize) {
+            plan = new ConversionPlan(rules, language, ignoreStrings, markAsAutoGenerated, streamingThreshold,
+                    streamChunkSize);
         }
+        return plan;
     }
 
     private static int filterAndCountQuotes(String token) {
@@ -288,25 +275,6 @@ public class ConvertFile32From64 {
         return count;
     }
 
-    public void scanForCustomization(File inputFile) throws IOException {
-        customIgnore.clear();
-
-        BufferedReader in = new BufferedReader(new FileReader(inputFile));
-
-        String line;
-        while ((line = in.readLine()) != null) {
-            if (!line.startsWith("//CUSTOM"))
-                continue;
-
-            String[] words = line.substring(9).split(" ");
-            if (words[0].equals("ignore")) {
-                customIgnore.add(words[1]);
-            }
-        }
-
-        in.close();
-    }
-
     /**
      * Adds a text replacement rule.  These will be run in the first pass
      *
@@ -315,6 +283,7 @@ public class ConvertFile32From64 {
      */
     public void replacePattern(String pattern, String replacement) {
         replacements.add(new Replacement(pattern, replacement));
+        compiled = null;
     }
 
     /**
@@ -326,6 +295,31 @@ public class ConvertFile32From64 {
      */
     public void replaceStartsWith(String pattern, String replacement) {
         replaceStartsWith.add(new Replacement(pattern, replacement));
+        compiled = null;
+    }
+
+    /**
+     * Specifies what a call to a function in Math is replaced with. This takes priority over the "starts with"
+     * rules, so a function which already has an overload for the output type doesn't need to be cast. E.g.
+     * replaceMathFunction("abs", "Math.abs") will convert "Math.abs(a)" into "Math.abs(a)" instead of
+     * "(float)Math.abs(a)". It can also be used to call a faster implementation,
+     * e.g. replaceMathFunction("sqrt", "FastMath.sqrt").
+     *
+     * @param function Name of the function in Math, e.g. "abs"
+     * @param replacement What "Math.function" is replaced with
+     */
+    public void replaceMathFunction(String function, String replacement) {
+        mathFunctions.put(function, replacement);
+        compiled = null;
+    }
+
+    /**
+     * Removes all the Math function replacements. Every Math function will then be handled by the
+     * "starts with" rules.
+     */
+    public void clearMathFunctions() {
+        mathFunctions.clear();
+        compiled = null;
     }
 
     /**
@@ -336,77 +330,46 @@ public class ConvertFile32From64 {
      */
     public void replacePatternAfter(String pattern, String replacement) {
         replacementsAfter.add(new Replacement(pattern, replacement));
-    }
-
-    private void handleToken(String s) {
-        boolean ignore = false;
-
-        for (int i = 0; i < customIgnore.size(); i++) {
-            if (s.contains(customIgnore.get(i))) {
-                ignore = true;
-                break;
-            }
-        }
-
-        if (!ignore && !skipFilterOnLine && !s.contains("/**/")) {
-            for (int i = 0; i < replacements.size(); i++) {
-                Replacement r = replacements.get(i);
-                s = s.replaceAll(r.pattern, r.replacement);
-            }
-
-            for (int i = 0; i < replaceStartsWith.size(); i++) {
-                Replacement r = replaceStartsWith.get(i);
-                s = replaceStartString(s, r.pattern, r.replacement);
-            }
-
-            s = handleFloats(s);
-
-            for (int i = 0; i < replacementsAfter.size(); i++) {
-                Replacement r = replacementsAfter.get(i);
-                s = s.replaceAll(r.pattern, r.replacement);
-            }
-        }
-
-        out.print(s);
-        out.flush();
+        compiled = null;
     }
 
     /**
-     * Looks for a floating point constant number and tacks on a 'f' to the end
-     * to make it into a float and not a double.
+     * Returns the compiled rules. If a rule has been added since the last time they were compiled then
+     * they are compiled again.
      */
-    private String handleFloats(String input) {
-        String regex = "\\d+\\.+\\d+([eE][-+]?\\d+)?";
-
-        return input.replaceAll(regex, "$0f");
+    CompiledRules compiledRules() {
+        if (compiled == null)
+            compiled = new CompiledRules(replacements, replaceStartsWith, replacementsAfter, mathFunctions, profile);
+        return compiled;
     }
 
-    private String replaceStartString(String input, String from, String to) {
+    public Language getLanguage() {
+        return language;
+    }
 
-        if (input.startsWith(from)) {
-            return to + input.substring(from.length());
-        } else {
-            return input;
-        }
+    public void setLanguage(Language language) {
+        this.language = language;
     }
 
-    void copy(InputStream source, OutputStream target) throws IOException {
-        byte[] buf = new byte[8192];
-        int length;
-        while ((length = source.read(buf)) > 0) {
-            target.write(buf, 0, length);
-        }
+    public TargetProfile getProfile() {
+        return profile;
     }
 
-    public Language getLanguage() {
-        return language;
+    /**
+     * Changes how floating point literals are rewritten. The replacement rules are not changed.
+     */
+    public void setProfile(TargetProfile profile) {
+        this.profile = profile;
+        compiled = null;
     }
 
-    public void setLanguage(Language language) {
-        this.language = language;
+    public void setStreamChunkSize(int streamChunkSize) {
+        if (streamChunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.streamChunkSize = streamChunkSize;
     }
 
-    private static class Replacement {
+    static class Replacement {
         public String pattern;
         public String replacement;
 
@@ -415,11 +378,4 @@ public class ConvertFile32From64 {
             this.replacement = replacement;
         }
     }
-
-    private enum State {
-        INITIALIZING,
-        INSIDE_COPYRIGHT,
-        BEFORE_CLASS_NAME,
-        MAIN
-    }
 }
@@ -0,0 +1,22 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a 64-bit class so that {@link AutoFloatProcessor} will generate its 32-bit version when it's compiled.
+ * The class must be a top level class and its name must end with "_F64". The annotation is kept in the class
+ * file so that Gradle's incremental compiler can tell which classes need to be processed again.
+ *
+ * @author Peter Abeles
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateFloat {
+}
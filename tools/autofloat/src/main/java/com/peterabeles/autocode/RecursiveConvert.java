@@ -5,21 +5,73 @@
 package com.peterabeles.autocode;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Traverses through a directory tree recursively converting code from double into floats.
  *
+ * Additional targets can be added with {@link #addTarget}. Each source file is then read and broken into tokens
+ * once and every target creates its own output from the same tokens, instead of traversing the tree once
+ * per target.
+ *
+ * Files are found using {@link SourceFinder}, so directories such as "build" can be skipped entirely with
+ * {@link #addExclude}. Hidden directories are always skipped.
+ *
  * @author Peter Abeles
  */
 public class RecursiveConvert {
+	/** Name of the index of directory listings when a location hasn't been specified */
+	public static final String DEFAULT_INDEX_NAME = ".autofloat_index";
 
 	private ConvertFile32From64 converter;
 
 	private String suffice64 = "_F64";
 	private String suffice32 = "_F32";
 
+	/** Targets which are generated in addition to the suffice32 target */
+	private final List<Target> targets = new ArrayList<>();
+
 	private Language language = Language.JAVA;
 
+	/**
+	 * Number of threads used to convert files. If 1 then files are converted one at a time as they are found
+	 * and it will stop at the first failure.
+	 */
+	private int threads = 1;
+
+	/**
+	 * If true then a file is only converted if it or the rules have changed since the last time it was converted.
+	 * See {@link ConversionManifest}.
+	 */
+	private boolean incremental = false;
+
+	/** Where the manifest is saved in incremental mode. If null then it's saved in the output directory */
+	private File manifestFile = null;
+
+	/** Where the index of directory listings is saved in incremental mode. If null then it's saved in the output directory */
+	private File indexFile = null;
+
+	/** Finds the source files. Include and exclude globs are passed to it */
+	private final SourceFinder finder = new SourceFinder();
+
+	/** If not null then the generated files are compiled with it after they have been converted */
+	private CompileVerifier verifier = null;
+
+	/** If not null then metrics are collected while converting and saved to this file. See {@link ConversionMetrics} */
+	private File metricsFile = null;
+
+	/** Metrics from the last call to process. null if metrics are not being collected */
+	private ConversionMetrics metrics = null;
+
 	public RecursiveConvert(ConvertFile32From64 converter ) {
 		this.converter = converter;
 	}
@@ -29,45 +81,97 @@ public class RecursiveConvert {
 		this.suffice32 = suffice32;
 	}
 
+	/**
+	 * Adds another version of the code which is generated from each source file
+	 *
+	 * @param suffice Suffix of the generated files, e.g. "_F16"
+	 * @param converter Rules used to create the generated files
+	 */
+	public void addTarget( String suffice , ConvertFile32From64 converter ) {
+		if( suffice.equals(suffice64) )
+			throw new IllegalArgumentException("Target suffix can't be the same as the input suffix");
+		targets.add(new Target(suffice, converter));
+	}
+
+	/**
+	 * Adds a target which uses the default rules for the profile, e.g. {@link TargetProfile#I32} to create an int
+	 * version of each class. Uses the language at the time it's called.
+	 */
+	public void addTarget( TargetProfile profile ) {
+		addTarget(profile.getSuffix(), new ConvertFile32From64(language, profile));
+	}
+
+	/** Removes all the targets added by {@link #addTarget} */
+	public void clearTargets() {
+		targets.clear();
+	}
+
 	public void process( File inputDirectory ) {
 		process(inputDirectory,inputDirectory);
 	}
 
 	public void process( File inputDirectory , File outputDirectory ) {
-		if( !inputDirectory.isDirectory() ) {
-			throw new IllegalArgumentException( "Not a directory. "+inputDirectory.getPath() );
-		}
-		if( !outputDirectory.exists() ) {
-			if( !outputDirectory.mkdirs() ) {
-				throw new RuntimeException("Can't create output directory. "+outputDirectory.getPath());
+		List<ConversionPlan> plans = createPlans();
+
+		metrics = null;
+		if( metricsFile != null ) {
+			metrics = new ConversionMetrics();
+			List<String> suffixes = outputSuffixes();
+			for( int i = 0; i < plans.size(); i++ ) {
+				metrics.addTarget(suffixes.get(i), plans.get(i));
 			}
-		} if( !outputDirectory.isDirectory() ) {
-			throw new IllegalArgumentException( "Output isn't a directory. "+outputDirectory.getPath() );
 		}
-		converter.setLanguage(language);
-
-		System.out.println( "---- Directory " + inputDirectory );
-
-		// examine all the files in the directory first
-		File[] files = inputDirectory.listFiles();
-		if( files == null )
-			return;
 
+		File manifestLocation = manifestLocation(outputDirectory);
+		ConversionManifest manifest = null;
+		if( incremental ) {
+			try {
+				manifest = loadManifest(plans, manifestLocation);
+			} catch( IOException e ) {
+				throw new UncheckedIOException(e);
+			}
+		}
 
-		String fileEnding64 = suffice64 + "." + language.suffix();
-		String fileEnding32 = suffice32 + "." + language.suffix();
-		int length64 = fileEnding64.length();
+		File indexLocation = indexFile != null ? indexFile : new File(outputDirectory, DEFAULT_INDEX_NAME);
+		try {
+			List<Job> jobs = findJobs(inputDirectory, outputDirectory, incremental ? indexLocation : null);
+			if( threads > 1 ) {
+				processConcurrent(inputDirectory, jobs, plans, manifest);
+			} else {
+				processSequential(inputDirectory, jobs, plans, manifest);
+			}
+			if( verifier != null && language == Language.JAVA )
+				verify(inputDirectory, outputDirectory, jobs);
+		} finally {
+			// Save what was converted even if something failed so that it doesn't need to be converted again
+			if( manifest != null ) {
+				try {
+					manifest.save(manifestLocation);
+				} catch( IOException e ) {
+					System.err.println("Failed to save manifest. "+e.getMessage());
+				}
+			}
+			if( metrics != null ) {
+				try {
+					metrics.save(metricsFile);
+				} catch( IOException e ) {
+					System.err.println("Failed to save metrics. "+e.getMessage());
+				}
+			}
+		}
+	}
 
-		for( File f : files ) {
-			if( !f.isFile() )
+	/**
+	 * Converts the files one at a time and stops at the first failure
+	 */
+	private void processSequential( File root, List<Job> jobs, List<ConversionPlan> plans, ConversionManifest manifest ) {
+		for( Job job : jobs ) {
+			if( job.isDirectory() ) {
+				System.out.println( "---- Directory " + job.input );
 				continue;
-			String n = f.getName();
-			if( !n.endsWith(fileEnding64) )
-				continue;
-			n = n.substring(0, n.length() - length64) + fileEnding32;
+			}
 			try {
-				System.out.println( "Generating " + n );
-				converter.process(f,new File(outputDirectory,n));
+				convertFile(root, job.input, job.outputs, plans, manifest, metrics, true);
 			} catch( Exception e ) {
 				System.out.println("\n\n\nCode generation failed!");
 				e.printStackTrace();
@@ -76,12 +180,388 @@ public class RecursiveConvert {
 				throw new RuntimeException( e );
 			}
 		}
+	}
+
+	/**
+	 * Converts a single file using the current rules. Used when the file is known to have changed and there's no
+	 * need to traverse the directory it's in. Metrics are not collected and the manifest isn't updated, since the
+	 * root directory isn't known. Use {@link #update} for that.
+	 *
+	 * @param input File which is to be converted
+	 * @param outputDirectory Directory the converted file is written to
+	 * @return true if the input is a file that should be converted and false if it was ignored
+	 */
+	public boolean processFile( File input , File outputDirectory ) throws IOException {
+		List<File> outputs = outputFiles(input.getName(), outputDirectory);
+		if( outputs == null || !input.isFile() )
+			return false;
+		checkDirectories(input.getAbsoluteFile().getParentFile(), outputDirectory);
+		convertFile(null, input, outputs, createPlans(), null, null, true);
+		return true;
+	}
+
+	/**
+	 * Brings the generated files up to date after files inside of the input directory were created, modified, or
+	 * deleted, without searching the entire tree. Used by {@link WatchConvert}. A file which exists is converted and
+	 * the output of a file which no longer exists is deleted. If a directory was deleted then the generated files
+	 * in its output directory are deleted, unless the output is written to the input directory, in which case
+	 * they are already gone. Files and directories which are skipped by the include and exclude globs are ignored,
+	 * the same as in {@link #process}. In incremental mode the manifest is updated. Metrics are not collected.
+	 *
+	 * Every file is processed even if one fails and an exception with all the failures is thrown at the end.
+	 *
+	 * @param inputDirectory The input directory which was passed to process
+	 * @param outputDirectory The output directory which was passed to process
+	 * @param changed Files and directories inside of the input directory which changed
+	 * @return Number of files which were converted or deleted
+	 */
+	public int update( File inputDirectory , File outputDirectory , List<File> changed ) throws IOException {
+		List<ConversionPlan> plans = createPlans();
+		Path root = inputDirectory.toPath().toAbsolutePath();
+		File manifestLocation = manifestLocation(outputDirectory);
+		ConversionManifest manifest = null;
+		if( incremental ) {
+			manifest = loadManifest(plans, manifestLocation);
+			// Only some files are looked at so everything else needs to stay in the manifest
+			manifest.retainPrevious();
+		}
+
+		int count = 0;
+		List<Throwable> failures = new ArrayList<>();
+		try {
+			for( File file : changed ) {
+				Path path = file.toPath().toAbsolutePath();
+				Path relative = root.relativize(path);
+				if( relative.toString().isEmpty() || relative.startsWith("..") || finder.isPathExcluded(relative) )
+					continue;
+				Path parent = relative.getParent();
+				File output = parent == null ? outputDirectory : new File(outputDirectory, parent.toString());
+				String key = relative.toString().replace(File.separatorChar, '/');
+				try {
+					if( file.isFile() ) {
+						if( !finder.isFileIncluded(relative) )
+							continue;
+						List<File> outputs = outputFiles(file.getName(), output);
+						if( outputs == null )
+							continue;
+						checkDirectories(path.getParent().toFile(), output);
+						if( convertFile(root.toFile(), path.toFile(), outputs, plans, manifest, null, true) )
+							count++;
+					} else if( !file.exists() ) {
+						count += deleteOutputs(path.toFile(), output);
+						if( manifest != null )
+							manifest.remove(key);
+					}
+				} catch( Exception e ) {
+					System.out.println("\n\n\nCode generation failed! "+file.getPath());
+					e.printStackTrace(System.out);
+					failures.add(e);
+				}
+			}
+		} finally {
+			if( manifest != null )
+				manifest.save(manifestLocation);
+		}
+		System.out.flush();
+
+		if( !failures.isEmpty() ) {
+			var e = new RuntimeException("Code generation failed for "+failures.size()+" files");
+			failures.forEach(e::addSuppressed);
+			throw e;
+		}
+		return count;
+	}
 
+	/**
+	 * Deletes the generated files of an input file or directory which no longer exists
+	 *
+	 * @param input The deleted file or directory
+	 * @param outputDirectory Output directory of the directory the input was in
+	 * @return Number of files deleted
+	 */
+	private int deleteOutputs( File input , File outputDirectory ) {
+		List<File> outputs = outputFiles(input.getName(), outputDirectory);
+		if( outputs != null ) {
+			int count = 0;
+			for( File f : outputs ) {
+				if( f.isFile() && f.delete() ) {
+					System.out.println( "Deleting " + f.getName() );
+					count++;
+				}
+			}
+			return count;
+		}
+		// If the output is the input then the generated files were deleted with the directory
+		File output = new File(outputDirectory, input.getName());
+		if( output.isDirectory() && !output.getAbsoluteFile().equals(input.getAbsoluteFile()) )
+			return deleteGenerated(output);
+		return 0;
+	}
+
+	/**
+	 * Deletes every generated file inside the directory and then the directory if it's empty
+	 */
+	private int deleteGenerated( File directory ) {
+		File[] files = directory.listFiles();
+		if( files == null )
+			return 0;
+		int count = 0;
 		for( File f : files ) {
-			if( f.isDirectory() && !f.isHidden() ) {
-				process( f , new File(outputDirectory,f.getName()));
+			if( f.isDirectory() ) {
+				count += deleteGenerated(f);
+			} else if( isOutputName(f.getName()) && f.delete() ) {
+				System.out.println( "Deleting " + f.getName() );
+				count++;
 			}
 		}
+		// Only works if nothing else is inside of it
+		directory.delete();
+		return count;
+	}
+
+	/** Returns true if the name is the name of a file which is generated */
+	private boolean isOutputName( String name ) {
+		for( String suffice : outputSuffixes() ) {
+			if( name.endsWith(suffice + "." + language.suffix()) )
+				return true;
+		}
+		return false;
+	}
+
+	private File manifestLocation( File outputDirectory ) {
+		return manifestFile != null ? manifestFile : new File(outputDirectory, ConversionManifest.DEFAULT_NAME);
+	}
+
+	/**
+	 * Loads the manifest from the last run. If it was created with different rules then it's empty.
+	 */
+	private ConversionManifest loadManifest( List<ConversionPlan> plans , File location ) throws IOException {
+		// The suffixes change the name of the output class so they are part of the fingerprint too
+		var builder = new StringBuilder(suffice64);
+		List<String> suffixes = outputSuffixes();
+		for( int i = 0; i < plans.size(); i++ ) {
+			builder.append(' ').append(plans.get(i).getFingerprint()).append(' ').append(suffixes.get(i));
+		}
+		String fingerprint = ConversionPlan.hashToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+		return ConversionManifest.load(location, fingerprint);
+	}
+
+	/**
+	 * Creates a plan for each target. The main converter is always first. The language is applied to the plans
+	 * and not the converters, which belong to the caller.
+	 */
+	private List<ConversionPlan> createPlans() {
+		List<ConversionPlan> plans = new ArrayList<>();
+		plans.add(converter.createPlan().withLanguage(language));
+		for( Target t : targets ) {
+			plans.add(t.converter.createPlan().withLanguage(language));
+		}
+		return plans;
+	}
+
+	/** Suffix of the output files in the same order as the plans */
+	private List<String> outputSuffixes() {
+		List<String> suffixes = new ArrayList<>();
+		suffixes.add(suffice32);
+		for( Target t : targets ) {
+			suffixes.add(t.suffice);
+		}
+		return suffixes;
+	}
+
+	/**
+	 * Returns the file each target writes to or null if the input file isn't converted
+	 */
+	private List<File> outputFiles( String inputName , File outputDirectory ) {
+		List<File> outputs = new ArrayList<>();
+		for( String suffice : outputSuffixes() ) {
+			String n = outputName(inputName, suffice);
+			if( n == null )
+				return null;
+			outputs.add(new File(outputDirectory, n));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Returns the name of the file that the input file is converted into or null if it isn't converted
+	 */
+	String outputName( String inputName ) {
+		return outputName(inputName, suffice32);
+	}
+
+	private String outputName( String inputName , String suffice ) {
+		String fileEnding64 = suffice64 + "." + language.suffix();
+		if( !inputName.endsWith(fileEnding64) )
+			return null;
+		return inputName.substring(0, inputName.length() - fileEnding64.length()) + suffice + "." + language.suffix();
+	}
+
+	/**
+	 * Converts a single file into every target. If in incremental mode and the file hasn't changed since the
+	 * last time then it's skipped.
+	 *
+	 * @param outputs Output file for each plan
+	 * @param metrics If not null then measurements of the file are added to it
+	 * @param log If true then a message is printed before the file is converted
+	 * @return true if the file was converted and false if it was skipped
+	 */
+	private boolean convertFile( File root, File input, List<File> outputs,
+								 List<ConversionPlan> plans, ConversionManifest manifest,
+								 ConversionMetrics metrics, boolean log ) throws IOException {
+		long time0 = System.nanoTime();
+		SourceText text = SourceText.read(input);
+		long readNano = System.nanoTime() - time0;
+		String key = null, hash = null;
+		if( manifest != null ) {
+			key = root.toPath().relativize(input.toPath()).toString().replace(File.separatorChar, '/');
+			hash = ConversionManifest.hash(text);
+			if( manifest.isUnchanged(key, hash) && outputs.stream().allMatch(File::isFile) ) {
+				manifest.record(key, hash);
+				return false;
+			}
+		}
+		if( log )
+			printGenerating(outputs);
+		ConversionPlan.process(plans, text, input, outputs, metrics, readNano);
+		if( manifest != null )
+			manifest.record(key, hash);
+		return true;
+	}
+
+	/**
+	 * Converts the files using a thread pool. All the threads share the same
+	 * immutable {@link ConversionPlan}. Messages are printed in the same order as when run in a single thread, no matter which
+	 * file finishes first, and every failure is reported before an exception is thrown.
+	 */
+	private void processConcurrent( File inputDirectory , List<Job> jobs,
+									List<ConversionPlan> plans, ConversionManifest manifest ) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> futures = new ArrayList<>();
+		try {
+			for( Job job : jobs ) {
+				if( job.isDirectory() )
+					continue;
+				futures.add(pool.submit(() -> convertFile(inputDirectory, job.input, job.outputs, plans, manifest, metrics, false)));
+			}
+
+			// Print the log in the same order as the jobs
+			List<Throwable> failures = new ArrayList<>();
+			int index = 0;
+			for( Job job : jobs ) {
+				if( job.isDirectory() ) {
+					System.out.println( "---- Directory " + job.input );
+					continue;
+				}
+				try {
+					if( futures.get(index++).get() )
+						printGenerating(job.outputs);
+				} catch( ExecutionException e ) {
+					printGenerating(job.outputs);
+					System.out.println("\n\n\nCode generation failed! "+job.input.getPath());
+					e.getCause().printStackTrace(System.out);
+					failures.add(e.getCause());
+				} catch( InterruptedException e ) {
+					throw new RuntimeException(e);
+				}
+			}
+			System.out.flush();
+
+			if( !failures.isEmpty() ) {
+				var e = new RuntimeException("Code generation failed for "+failures.size()+" files");
+				failures.forEach(e::addSuppressed);
+				throw e;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds every directory and the files inside of them that need to be converted. Output directories are
+	 * created as needed.
+	 *
+	 * @param index Where the index of directory listings is loaded from and saved to. If null then there is no index.
+	 * @return Each directory followed by the files in it which need to be converted
+	 */
+	private List<Job> findJobs( File inputDirectory , File outputDirectory, File index ) {
+		checkDirectories(inputDirectory, outputDirectory);
+		Path root = inputDirectory.toPath();
+		finder.setThreads(threads);
+
+		List<SourceFinder.Directory> directories;
+		try {
+			if( index != null )
+				finder.loadIndex(index, root);
+			directories = finder.find(root);
+			if( index != null )
+				finder.saveIndex(index, root);
+		} catch( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+
+		List<Job> jobs = new ArrayList<>();
+		for( SourceFinder.Directory d : directories ) {
+			String relative = d.relative.toString();
+			File output = relative.isEmpty() ? outputDirectory : new File(outputDirectory, relative);
+			checkDirectories(d.path.toFile(), output);
+			jobs.add(new Job(d.path.toFile(), null));
+
+			for( Path f : d.files ) {
+				List<File> outputs = outputFiles(f.getFileName().toString(), output);
+				if( outputs == null )
+					continue;
+				jobs.add(new Job(f.toFile(), outputs));
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Compiles every generated file. The input and output directories are added to the source path so that
+	 * classes which the generated code references can be found.
+	 */
+	private void verify( File inputDirectory , File outputDirectory , List<Job> jobs ) {
+		List<CompileVerifier.Source> sources = new ArrayList<>();
+		for( Job job : jobs ) {
+			if( job.isDirectory() )
+				continue;
+			for( File output : job.outputs ) {
+				sources.add(new CompileVerifier.Source(output, job.input));
+			}
+		}
+
+		System.out.println( "---- Verifying " + sources.size() + " files" );
+		List<CompileVerifier.Failure> failures;
+		try {
+			failures = verifier.verify(sources, List.of(outputDirectory, inputDirectory));
+		} catch( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+		if( failures.isEmpty() )
+			return;
+		CompileVerifier.print(failures, System.out);
+		System.out.flush();
+		throw new RuntimeException("Generated code failed to compile. "+failures.size()+" errors");
+	}
+
+	private static void printGenerating( List<File> outputs ) {
+		for( File output : outputs ) {
+			System.out.println( "Generating " + output.getName() );
+		}
+	}
+
+	private static void checkDirectories( File inputDirectory , File outputDirectory ) {
+		if( !inputDirectory.isDirectory() ) {
+			throw new IllegalArgumentException( "Not a directory. "+inputDirectory.getPath() );
+		}
+		if( !outputDirectory.exists() ) {
+			if( !outputDirectory.mkdirs() ) {
+				throw new RuntimeException("Can't create output directory. "+outputDirectory.getPath());
+			}
+		} if( !outputDirectory.isDirectory() ) {
+			throw new IllegalArgumentException( "Output isn't a directory. "+outputDirectory.getPath() );
+		}
 	}
 
 	public Language getLanguage() {
@@ -91,4 +571,139 @@ public class RecursiveConvert {
 	public void setLanguage(Language language) {
 		this.language = language;
 	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Specifies the number of threads used to convert files. If more than one then files are converted
+	 * in parallel.
+	 */
+	public void setThreads( int threads ) {
+		if( threads < 1 )
+			throw new IllegalArgumentException("Threads must be at least 1");
+		this.threads = threads;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * If true then files which haven't changed since the last time they were converted are skipped. Hashes of
+	 * the source files are saved in a manifest along with a fingerprint of the rules. If the rules change then
+	 * every file is converted again. The contents of each directory are saved in an index too, so directories
+	 * which haven't changed don't need to be listed again.
+	 */
+	public void setIncremental( boolean incremental ) {
+		this.incremental = incremental;
+	}
+
+	public File getManifestFile() {
+		return manifestFile;
+	}
+
+	/**
+	 * Specifies where the manifest is saved in incremental mode. If null it will be saved in the output directory.
+	 */
+	public void setManifestFile( File manifestFile ) {
+		this.manifestFile = manifestFile;
+	}
+
+	/**
+	 * Adds a glob for files which are converted, e.g. "ops/**". If none are added then every file with the
+	 * input suffix is converted. See {@link SourceFinder}.
+	 */
+	public void addInclude( String glob ) {
+		finder.addInclude(glob);
+	}
+
+	/**
+	 * Adds a glob for files and directories which are skipped, e.g. "build" or ".git". Nothing inside of an
+	 * excluded directory is looked at. See {@link SourceFinder}.
+	 */
+	public void addExclude( String glob ) {
+		finder.addExclude(glob);
+	}
+
+	/**
+	 * Checks to see if a file or directory is skipped by an exclude glob
+	 *
+	 * @param relative Location relative to the input directory
+	 */
+	boolean isExcluded( Path relative ) {
+		return finder.isPathExcluded(relative);
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Specifies where the index of directory listings is saved in incremental mode. If null it will be saved in
+	 * the output directory.
+	 */
+	public void setIndexFile( File indexFile ) {
+		this.indexFile = indexFile;
+	}
+
+	public CompileVerifier getVerifier() {
+		return verifier;
+	}
+
+	/**
+	 * If not null then all the generated files are compiled in memory after they have been converted and an
+	 * exception is thrown if there are any errors. Errors are printed with the line in the original file.
+	 * Only Java files are verified.
+	 */
+	public void setVerifier( CompileVerifier verifier ) {
+		this.verifier = verifier;
+	}
+
+	public File getMetricsFile() {
+		return metricsFile;
+	}
+
+	/**
+	 * Specifies where a report with the metrics of each file and the number of times each rule was used is
+	 * saved. The report is JSON if the file ends with ".json" and CSV otherwise. If null then metrics are not
+	 * collected, which is the default.
+	 */
+	public void setMetricsFile( File metricsFile ) {
+		this.metricsFile = metricsFile;
+	}
+
+	/**
+	 * Returns the metrics collected by the last call to process or null if metrics were not collected
+	 */
+	public ConversionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** A single file that needs to be converted or the start of a new directory if outputs is null */
+	private static class Job {
+		File input;
+		List<File> outputs;
+
+		public Job( File input, List<File> outputs ) {
+			this.input = input;
+			this.outputs = outputs;
+		}
+
+		public boolean isDirectory() {
+			return outputs == null;
+		}
+	}
+
+	/** Additional version of the code that's generated from each source file */
+	private static class Target {
+		String suffice;
+		ConvertFile32From64 converter;
+
+		public Target( String suffice, ConvertFile32From64 converter ) {
+			this.suffice = suffice;
+			this.converter = converter;
+		}
+	}
 }
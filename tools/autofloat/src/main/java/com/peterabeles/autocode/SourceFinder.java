@@ -0,0 +1,388 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the source files inside of a directory tree. Each directory is listed with {@link Files#walkFileTree}
+ * so the attributes of every entry come from the listing instead of a separate call for each file. Hidden
+ * directories and anything matching an exclude glob are skipped along with everything inside of them. If there
+ * are include globs then a file must match one of them.
+ *
+ * A glob matches if it matches either the path relative to the root, e.g. "foo/bar/A_F64.java", or just the
+ * name, e.g. "A_F64.java". So "build" excludes every directory named build and "foo/**" excludes everything
+ * inside of foo.
+ *
+ * Directories can be listed in parallel. The results are always in the same order, where each directory is
+ * followed by the directories inside of it, the same as a depth first traversal.
+ *
+ * If an index file is specified then the listing of each directory is saved along with its modification time.
+ * Adding, removing, or renaming a file changes the modification time of the directory it's in, so on the next
+ * run a directory with the same time doesn't need to be listed again.
+ *
+ * @author Peter Abeles
+ */
+public class SourceFinder {
+    private static final String HEADER = "index ";
+
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+
+    // Number of threads used to list directories
+    private int threads = 1;
+
+    // Directories modified this recently, in milliseconds, are not put in the index since a change might be missed
+    private long racyPeriod = 2000;
+
+    // Listing of each directory from the previous run, relative to the root
+    private final Map<String, Listing> previous = new ConcurrentHashMap<>();
+    // Listing of each directory found in this run
+    private final Map<String, Listing> current = new ConcurrentHashMap<>();
+    // Number of directories which were listed instead of being taken from the index in the last call to find
+    private final AtomicInteger listed = new AtomicInteger();
+
+    /**
+     * Adds a glob which files must match. If there are no includes then every file is included.
+     */
+    public void addInclude( String glob ) {
+        includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+
+    /**
+     * Adds a glob for files and directories which are skipped. A directory which matches is not looked inside of.
+     */
+    public void addExclude( String glob ) {
+        excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+
+    /**
+     * Finds every directory and the files inside of it which match the globs
+     *
+     * @param root The directory which is searched
+     * @return Every directory in depth first order. The root is first
+     */
+    public List<Directory> find( Path root ) {
+        current.clear();
+        listed.set(0);
+        var top = new Node(root, Path.of(""));
+        if (threads > 1) {
+            var pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new ListTask(top));
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            listTree(top);
+        }
+
+        List<Directory> found = new ArrayList<>();
+        flatten(top, found);
+        return found;
+    }
+
+    private void listTree( Node node ) {
+        list(node);
+        for (Node child : node.children) {
+            listTree(child);
+        }
+    }
+
+    /** Lists directories in parallel by creating a task for each child */
+    @SuppressWarnings("serial")
+    private class ListTask extends RecursiveAction {
+        final Node node;
+
+        ListTask( Node node ) {
+            this.node = node;
+        }
+
+        @Override protected void compute() {
+            list(node);
+            List<ListTask> tasks = new ArrayList<>();
+            for (Node child : node.children) {
+                tasks.add(new ListTask(child));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Lists the contents of the directory, or takes them from the index if it hasn't been modified, and then
+     * applies the globs
+     */
+    private void list( Node node ) {
+        String key = toKey(node.relative);
+        Listing listing;
+        try {
+            long modified = Files.getLastModifiedTime(node.path).toMillis();
+            listing = previous.get(key);
+            if (listing == null || listing.modified != modified) {
+                listing = listDirectory(node.path, modified);
+                listed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // Unreadable directories are skipped the same as when File.listFiles() returns null
+            return;
+        }
+        current.put(key, listing);
+
+        for (String name : listing.files) {
+            Path relative = node.relative.resolve(name);
+            if (isIncluded(relative))
+                node.files.add(node.path.resolve(name));
+        }
+        for (String name : listing.directories) {
+            Path relative = node.relative.resolve(name);
+            if (!isExcluded(relative))
+                node.children.add(new Node(node.path.resolve(name), relative));
+        }
+    }
+
+    /**
+     * Lists the files and directories inside of a directory. Hidden directories are not included.
+     */
+    private Listing listDirectory( Path directory, long modified ) throws IOException {
+        var listing = new Listing(modified);
+        listing.racy = System.currentTimeMillis() - modified < racyPeriod;
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<>() {
+            @Override public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile())
+                    listing.files.add(name);
+                else if (attrs.isDirectory() && !isHidden(name, attrs))
+                    listing.directories.add(name);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFileFailed( Path file, IOException e ) throws IOException {
+                // The directory itself couldn't be opened
+                if (file.equals(directory))
+                    throw e;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return listing;
+    }
+
+    /** Same as {@link File#isHidden()} but uses the attributes which have already been read */
+    private static boolean isHidden( String name, BasicFileAttributes attrs ) {
+        if (attrs instanceof DosFileAttributes)
+            return ((DosFileAttributes)attrs).isHidden();
+        return name.startsWith(".");
+    }
+
+    /**
+     * Checks to see if a file would be found without listing any directories. The file and the directories it's
+     * inside of are checked against the globs, but not if they are hidden.
+     *
+     * @param relative Location of the file relative to the root
+     */
+    public boolean isFileIncluded( Path relative ) {
+        return !isPathExcluded(relative) && (includes.isEmpty() || matches(includes, relative));
+    }
+
+    /**
+     * Checks to see if a file or directory is skipped because it, or a directory it's inside of, matches an
+     * exclude glob
+     *
+     * @param relative Location relative to the root
+     */
+    public boolean isPathExcluded( Path relative ) {
+        for (Path p = relative; p != null; p = p.getParent()) {
+            if (isExcluded(p))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isIncluded( Path relative ) {
+        if (isExcluded(relative))
+            return false;
+        return includes.isEmpty() || matches(includes, relative);
+    }
+
+    private boolean isExcluded( Path relative ) {
+        return matches(excludes, relative);
+    }
+
+    private static boolean matches( List<PathMatcher> matchers, Path relative ) {
+        Path name = relative.getFileName();
+        for (PathMatcher m : matchers) {
+            if (m.matches(relative) || m.matches(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static void flatten( Node node, List<Directory> found ) {
+        found.add(new Directory(node.path, node.relative, node.files));
+        for (Node child : node.children) {
+            flatten(child, found);
+        }
+    }
+
+    private static String toKey( Path relative ) {
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Loads the index saved by a previous run. Nothing is loaded if the file doesn't exist or the index
+     * was for a different root directory.
+     */
+    public void loadIndex( File file, Path root ) throws IOException {
+        previous.clear();
+        if (!file.isFile())
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER + root.toAbsolutePath()))
+                return;
+
+            Listing listing = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 2)
+                    continue;
+                String value = line.substring(2);
+                switch (line.charAt(0)) {
+                    case 'D': {
+                        int split = value.indexOf(' ');
+                        listing = new Listing(Long.parseLong(value.substring(0, split)));
+                        previous.put(value.substring(split + 1), listing);
+                    } break;
+                    case 'f': listing.files.add(value); break;
+                    case 'd': listing.directories.add(value); break;
+                    default: throw new IllegalArgumentException("Unknown line in index. " + line);
+                }
+            }
+        } catch (RuntimeException e) {
+            // A corrupted index is the same as no index
+            previous.clear();
+        }
+    }
+
+    /**
+     * Saves the listing of every directory found by the last call to {@link #find}
+     */
+    public void saveIndex( File file, Path root ) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Can't create directory. " + parent.getPath());
+
+        try (var out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.print(HEADER + root.toAbsolutePath() + "\n");
+            for (Map.Entry<String, Listing> e : new TreeMap<>(current).entrySet()) {
+                Listing listing = e.getValue();
+                if (listing.racy)
+                    continue;
+                out.print("D " + listing.modified + " " + e.getKey() + "\n");
+                for (String name : listing.files) {
+                    out.print("f " + name + "\n");
+                }
+                for (String name : listing.directories) {
+                    out.print("d " + name + "\n");
+                }
+            }
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Number of threads used to list directories */
+    public void setThreads( int threads ) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Threads must be at least 1");
+        this.threads = threads;
+    }
+
+    public long getRacyPeriod() {
+        return racyPeriod;
+    }
+
+    /**
+     * Directories modified this recently, in milliseconds, are listed again on the next run instead of being
+     * taken from the index. A file could be added within the resolution of the file system's clock without
+     * changing the modification time.
+     */
+    public void setRacyPeriod( long racyPeriod ) {
+        if (racyPeriod < 0)
+            throw new IllegalArgumentException("Racy period can't be negative");
+        this.racyPeriod = racyPeriod;
+    }
+
+    /** Number of directories which had to be listed in the last call to {@link #find}, i.e. weren't in the index */
+    public int getListed() {
+        return listed.get();
+    }
+
+    /** A directory and the files inside of it that were found */
+    public static class Directory {
+        /** Location of the directory */
+        public final Path path;
+        /** Location of the directory relative to the root */
+        public final Path relative;
+        /** Files inside of the directory which match the globs */
+        public final List<Path> files;
+
+        public Directory( Path path, Path relative, List<Path> files ) {
+            this.path = path;
+            this.relative = relative;
+            this.files = files;
+        }
+    }
+
+    /** A directory while the tree is being listed */
+    private static class Node {
+        final Path path;
+        final Path relative;
+        final List<Path> files = new ArrayList<>();
+        final List<Node> children = new ArrayList<>();
+
+        Node( Path path, Path relative ) {
+            this.path = path;
+            this.relative = relative;
+        }
+    }
+
+    /** Names of the files and directories inside of a directory */
+    private static class Listing {
+        final long modified;
+        final List<String> files = new ArrayList<>();
+        final List<String> directories = new ArrayList<>();
+        // true if it was modified too recently to be sure that a later change will change the modification time
+        boolean racy;
+
+        Listing( long modified ) {
+            this.modified = modified;
+        }
+    }
+}
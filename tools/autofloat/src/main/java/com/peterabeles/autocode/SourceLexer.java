@@ -0,0 +1,248 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+/**
+ * Breaks Java or Kotlin source code into tokens in a single pass and labels each token with its {@link TokenKind}.
+ * Comments, strings, text blocks, and character literals are each a single token, so a quote inside of a
+ * comment or a comment inside of a string can't confuse anything which comes after it.
+ *
+ * Differences between the languages which are handled:
+ * <ul>
+ *     <li>Java text blocks and Kotlin raw strings, which both start with three quotes</li>
+ *     <li>Kotlin block comments can be nested</li>
+ *     <li>Kotlin string templates, e.g. "${a["b"]}", can contain strings</li>
+ *     <li>Kotlin names inside of back ticks</li>
+ * </ul>
+ *
+ * @author Peter Abeles
+ */
+public class SourceLexer {
+    private final Language language;
+
+    public SourceLexer( Language language ) {
+        this.language = language;
+    }
+
+    /**
+     * Breaks text[start:end] into tokens
+     *
+     * @param tokens (Output) Location and type of each token
+     */
+    public void tokenize( CharSequence text, int start, int end, TokenSpans tokens ) {
+        tokens.reset();
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            char next = i + 1 < end ? text.charAt(i + 1) : 0;
+            int tokenEnd;
+            TokenKind kind;
+
+            if (Character.isWhitespace(c)) {
+                tokenEnd = i + 1;
+                while (tokenEnd < end && Character.isWhitespace(text.charAt(tokenEnd)))
+                    tokenEnd++;
+                kind = TokenKind.WHITESPACE;
+            } else if (c == '/' && next == '/') {
+                tokenEnd = endOfLine(text, i + 2, end);
+                kind = TokenKind.COMMENT;
+            } else if (c == '/' && next == '*') {
+                tokenEnd = endOfBlockComment(text, i + 2, end);
+                kind = TokenKind.COMMENT;
+            } else if (c == '"') {
+                tokenEnd = endOfString(text, i, end);
+                kind = TokenKind.STRING;
+            } else if (c == '\'') {
+                tokenEnd = endOfQuoted(text, i + 1, end, '\'');
+                kind = TokenKind.CHARACTER;
+            } else if (c == '`' && language == Language.KOTLIN) {
+                tokenEnd = endOfQuoted(text, i + 1, end, '`');
+                kind = TokenKind.IDENTIFIER;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                tokenEnd = i + 1;
+                while (tokenEnd < end && Character.isJavaIdentifierPart(text.charAt(tokenEnd)))
+                    tokenEnd++;
+                kind = TokenKind.IDENTIFIER;
+            } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+                tokenEnd = endOfNumber(text, i + 1, end);
+                kind = TokenKind.NUMBER;
+            } else {
+                tokenEnd = i + 1;
+                while (tokenEnd < end && isOperator(text, tokenEnd, end))
+                    tokenEnd++;
+                kind = TokenKind.OPERATOR;
+            }
+            tokens.add(i, tokenEnd, kind);
+            i = tokenEnd;
+        }
+    }
+
+    public void tokenize( CharSequence text, TokenSpans tokens ) {
+        tokenize(text, 0, text.length(), tokens);
+    }
+
+    /**
+     * Returns true if the character at 'i' is an operator and not the start of some other token
+     */
+    private static boolean isOperator( CharSequence text, int i, int end ) {
+        char c = text.charAt(i);
+        if (Character.isWhitespace(c) || Character.isJavaIdentifierPart(c) ||
+                c == '"' || c == '\'' || c == '`' || c == '.')
+            return false;
+        if (c == '/' && i + 1 < end) {
+            char next = text.charAt(i + 1);
+            return next != '/' && next != '*';
+        }
+        return true;
+    }
+
+    /** Finds the index of the next line break, which isn't included in the token */
+    private static int endOfLine( CharSequence text, int i, int end ) {
+        while (i < end && text.charAt(i) != '\n' && text.charAt(i) != '\r')
+            i++;
+        return i;
+    }
+
+    private int endOfBlockComment( CharSequence text, int i, int end ) {
+        int depth = 1;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '*' && i + 1 < end && text.charAt(i + 1) == '/') {
+                i += 2;
+                if (--depth == 0)
+                    return i;
+            } else if (language == Language.KOTLIN && c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+                // Kotlin allows comments to be nested
+                i += 2;
+                depth++;
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of a string, text block, or raw string which starts at index 'i'
+     */
+    private int endOfString( CharSequence text, int i, int end ) {
+        boolean textBlock = i + 2 < end && text.charAt(i + 1) == '"' && text.charAt(i + 2) == '"';
+        if (!textBlock)
+            return endOfQuoted(text, i + 1, end, '"');
+
+        i += 3;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '\\' && language == Language.JAVA) {
+                // Kotlin raw strings don't have escape characters
+                i += 2;
+            } else if (c == '"' && i + 2 < end && text.charAt(i + 1) == '"' && text.charAt(i + 2) == '"') {
+                i += 3;
+                // In Kotlin the extra quotes are part of the string, e.g. """a""""
+                while (language == Language.KOTLIN && i < end && text.charAt(i) == '"')
+                    i++;
+                return i;
+            } else if (c == '$' && language == Language.KOTLIN && i + 1 < end && text.charAt(i + 1) == '{') {
+                i = endOfTemplate(text, i + 2, end);
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of a string or character which starts just before index 'i'. If it isn't closed before the
+     * end of the line then it ends at the line break.
+     */
+    private int endOfQuoted( CharSequence text, int i, int end, char quote ) {
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == quote)
+                return i + 1;
+            if (c == '\n' || c == '\r')
+                return i;
+            if (c == '\\' && quote != '`') {
+                // An escaped line break isn't allowed and would cause the string to continue onto the next line
+                if (i + 1 < end && (text.charAt(i + 1) == '\n' || text.charAt(i + 1) == '\r'))
+                    return i + 1;
+                i += 2;
+            } else if (c == '$' && quote == '"' && language == Language.KOTLIN &&
+                    i + 1 < end && text.charAt(i + 1) == '{') {
+                i = endOfTemplate(text, i + 2, end);
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of a Kotlin string template expression, e.g. ${foo("bar")}, where 'i' is just after the '{'
+     */
+    private int endOfTemplate( CharSequence text, int i, int end ) {
+        int depth = 1;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                i = endOfString(text, i, end);
+            } else if (c == '\'') {
+                i = endOfQuoted(text, i + 1, end, '\'');
+            } else {
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of a numeric literal. Exponents, suffixes, hex, and underscores are all part of the number
+     */
+    private static int endOfNumber( CharSequence text, int i, int end ) {
+        while (i < end) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                i++;
+            } else if (c == '.' && i + 1 < end && isDigit(text.charAt(i + 1))) {
+                i++;
+            } else if ((c == '+' || c == '-') && isExponent(text.charAt(i - 1), text, i)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /** Checks to see if the +/- at 'i' is part of an exponent */
+    private static boolean isExponent( char prev, CharSequence text, int i ) {
+        if (prev == 'p' || prev == 'P')
+            return true;
+        if (prev != 'e' && prev != 'E')
+            return false;
+        // e and E are digits in hex numbers, e.g. 0x1E+2 is addition
+        for (int j = i - 2; j >= 0; j--) {
+            char c = text.charAt(j);
+            if (c == 'x' || c == 'X')
+                return false;
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.')
+                break;
+        }
+        return true;
+    }
+
+    private static boolean isDigit( char c ) {
+        return c >= '0' && c <= '9';
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+}
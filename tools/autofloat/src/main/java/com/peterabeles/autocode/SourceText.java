@@ -0,0 +1,144 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Contents of a source file stored as bytes in a single buffer and accessed as ISO-8859-1 characters. This
+ * avoids decoding the file into a String. Files are read onto the heap and not memory mapped, since a mapping
+ * keeps the file locked on Windows until it's garbage collected. Use the streaming mode for files which are too
+ * large to be held in memory.
+ *
+ * @author Peter Abeles
+ */
+public class SourceText implements CharSequence {
+    final ByteBuffer buffer;
+
+    public SourceText( ByteBuffer buffer ) {
+        this.buffer = buffer;
+    }
+
+    public SourceText( byte[] data ) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads the file into memory. The file is closed before this returns.
+     */
+    public static SourceText read( File file ) throws IOException {
+        return new SourceText(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Writes the text to a file using the same encoding that it was read with
+     */
+    public static void write( CharSequence text, File file ) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file.toPath())) {
+            write(text, stream);
+        }
+    }
+
+    /**
+     * Writes the text to a file only if the file's contents would change. This way the file's time stamp is
+     * only modified when it really has changed and build tools don't need to recompile it.
+     *
+     * @return true if the file was written to
+     */
+    public static boolean writeIfChanged( CharSequence text, File file ) throws IOException {
+        if (isSameAsFile(text, file))
+            return false;
+        write(text, file);
+        return true;
+    }
+
+    /**
+     * Returns true if the file's bytes are identical to the text after it has been encoded
+     */
+    public static boolean isSameAsFile( CharSequence text, File file ) throws IOException {
+        // Each character is encoded as a single byte
+        if (!file.isFile() || file.length() != text.length())
+            return false;
+
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                // characters which can't be encoded are written as '?'
+                int expected = c <= 0xFF ? c : '?';
+                if (stream.read() != expected)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if both files exist and have identical contents
+     */
+    public static boolean isSameFile( File a, File b ) throws IOException {
+        if (!a.isFile() || !b.isFile() || a.length() != b.length())
+            return false;
+
+        try (InputStream streamA = new BufferedInputStream(Files.newInputStream(a.toPath()));
+             InputStream streamB = new BufferedInputStream(Files.newInputStream(b.toPath()))) {
+            int value;
+            while ((value = streamA.read()) != -1) {
+                if (value != streamB.read())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the text to the stream using the same encoding that it was read with. Text is copied in small
+     * blocks to avoid creating a copy of the entire text.
+     */
+    public static void write( CharSequence text, OutputStream stream ) throws IOException {
+        Writer writer = new OutputStreamWriter(stream, ConvertFile32From64.CHARSET);
+        if (text instanceof StringBuilder) {
+            var builder = (StringBuilder)text;
+            char[] block = new char[8192];
+            for (int i = 0; i < builder.length(); i += block.length) {
+                int length = Math.min(block.length, builder.length() - i);
+                builder.getChars(i, i + length, block, 0);
+                writer.write(block, 0, length);
+            }
+        } else {
+            writer.append(text);
+        }
+        writer.flush();
+    }
+
+    @Override public int length() {
+        return buffer.limit();
+    }
+
+    @Override public char charAt( int index ) {
+        return (char)(buffer.get(index) & 0xFF);
+    }
+
+    @Override public CharSequence subSequence( int start, int end ) {
+        return substring(start, end);
+    }
+
+    public String substring( int start, int end ) {
+        byte[] data = new byte[end - start];
+        buffer.duplicate().position(start).get(data);
+        return new String(data, ConvertFile32From64.CHARSET);
+    }
+
+    @Override public String toString() {
+        return substring(0, length());
+    }
+}
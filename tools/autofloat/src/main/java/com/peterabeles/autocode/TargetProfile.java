@@ -0,0 +1,122 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Primitive type which the 64-bit floating point code is converted into. Each profile specifies how the type,
+ * its boxed class, and the suffix in class names are renamed, what Math functions are cast to, and how
+ * floating point literals are rewritten. This way one _F64 template can be used to generate specialized
+ * classes for several primitive types without using generics and boxing.
+ *
+ * @author Peter Abeles
+ */
+public enum TargetProfile {
+    F32("_F32", "float", "Float", "Float", "parseFloat", false,
+            "abs", "min", "max", "signum", "fma", "copySign", "ulp", "nextUp", "nextDown", "nextAfter", "scalb",
+            "getExponent"),
+    I64("_I64", "long", "Long", "Long", "parseLong", true,
+            "abs", "min", "max", "floorDiv", "floorMod"),
+    I32("_I32", "int", "Integer", "Int", "parseInt", true,
+            "abs", "min", "max", "floorDiv", "floorMod"),
+    I16("_I16", "short", "Short", "Short", "parseShort", true);
+
+    /** Suffix which replaces _F64 in class names */
+    private final String suffix;
+    /** Name of the Java primitive */
+    private final String primitive;
+    /** Name of the Java class which boxes the primitive */
+    private final String boxed;
+    /** Name of the type in Kotlin */
+    private final String kotlinType;
+    /** Name of the function in the boxed class which parses a String */
+    private final String parse;
+    /** If true then it's an integer type and floating point literals need to be converted into integers */
+    private final boolean integral;
+    /** Functions in Math which have an overload for the primitive and don't need to be cast */
+    private final String[] mathOverloads;
+
+    TargetProfile( String suffix, String primitive, String boxed, String kotlinType, String parse,
+                   boolean integral, String... mathOverloads ) {
+        this.suffix = suffix;
+        this.primitive = primitive;
+        this.boxed = boxed;
+        this.kotlinType = kotlinType;
+        this.parse = parse;
+        this.integral = integral;
+        this.mathOverloads = mathOverloads;
+    }
+
+    /**
+     * Adds the default replacement rules for this profile to the converter
+     */
+    void addDefaultReplacements( ConvertFile32From64 converter, Language language ) {
+        if (language == Language.JAVA) {
+            if (integral)
+                converter.replacePattern("parseDouble", parse);
+            converter.replacePattern("double", primitive);
+            converter.replacePattern("Double", boxed);
+            converter.replacePattern("_F64", suffix);
+
+            converter.replaceStartsWith("Math.", "(" + primitive + ")Math.");
+            converter.replaceStartsWith("-Math.", "(" + primitive + ")-Math.");
+            for (String function : mathOverloads) {
+                converter.replaceMathFunction(function, "Math." + function);
+            }
+
+            converter.replacePatternAfter("FIXED_DOUBLE", "/\\*\\*/double");
+        } else if (language == Language.KOTLIN) {
+            converter.replacePattern("Double", kotlinType);
+            converter.replacePattern("_F64", suffix);
+            converter.replacePatternAfter("FIXED_DOUBLE", "/\\*\\*/Double");
+        }
+    }
+
+    /**
+     * Rewrites a floating point literal, e.g. "2.0", so that it's the type in this profile. Floats get an 'f' at
+     * the end. For integers the value must be a whole number, e.g. "2.0" or "1.5e3", which is written without
+     * a fraction or exponent. Nothing is ever truncated.
+     *
+     * @return The rewritten literal or null if it's an integer type and the value can't be represented exactly
+     */
+    String rewriteLiteral( String literal ) {
+        if (!integral)
+            return literal + "f";
+
+        char last = literal.charAt(literal.length() - 1);
+        if (last == 'd' || last == 'D' || last == 'f' || last == 'F')
+            literal = literal.substring(0, literal.length() - 1);
+        BigInteger value;
+        try {
+            value = new BigDecimal(literal).toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        // Integer literals are ints unless they end with an L
+        if (value.bitLength() < 32)
+            return value.toString();
+        if (this == I64 && value.bitLength() < 64)
+            return value + "L";
+        return null;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public String getPrimitive() {
+        return primitive;
+    }
+
+    public String getBoxed() {
+        return boxed;
+    }
+
+    public boolean isIntegral() {
+        return integral;
+    }
+}
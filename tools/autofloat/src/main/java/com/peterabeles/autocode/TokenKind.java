@@ -0,0 +1,27 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+/**
+ * The type of token found by {@link SourceLexer}
+ *
+ * @author Peter Abeles
+ */
+public enum TokenKind {
+    /** One or more white space characters */
+    WHITESPACE,
+    /** Names, keywords, and Kotlin names inside of back ticks */
+    IDENTIFIER,
+    /** Numeric literal, e.g. 1.5e-3 */
+    NUMBER,
+    /** One or more characters which are not part of any other type of token, e.g. "+=" or "(" */
+    OPERATOR,
+    /** String literal, including text blocks and raw strings */
+    STRING,
+    /** Character literal, e.g. '"' */
+    CHARACTER,
+    /** Block or line comment */
+    COMMENT
+}
@@ -0,0 +1,121 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.util.Arrays;
+
+/**
+ * List of tokens where each token is stored as the location of its first and last character in the text it
+ * came from. Nothing is allocated for a token unless its text is requested.
+ *
+ * @author Peter Abeles
+ */
+public class TokenSpans {
+    // index of the first character in each token
+    int[] starts;
+    // index one past the last character in each token
+    int[] ends;
+    // Type of each token. null if the type isn't known
+    TokenKind[] kinds;
+    int size;
+
+    public TokenSpans( int capacity ) {
+        starts = new int[capacity];
+        ends = new int[capacity];
+        kinds = new TokenKind[capacity];
+    }
+
+    public TokenSpans() {
+        this(1024);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void add( int start, int end ) {
+        add(start, end, null);
+    }
+
+    public void add( int start, int end, TokenKind kind ) {
+        if (size == starts.length) {
+            int capacity = starts.length*2 + 10;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        kinds[size] = kind;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start( int index ) {
+        return starts[index];
+    }
+
+    public int end( int index ) {
+        return ends[index];
+    }
+
+    public TokenKind kind( int index ) {
+        return kinds[index];
+    }
+
+    /**
+     * Returns the text of a token. This will create a new String.
+     */
+    public String get( CharSequence text, int index ) {
+        return text.subSequence(starts[index], ends[index]).toString();
+    }
+
+    /** Returns true if text[start:end] begins with the prefix */
+    public static boolean startsWith( CharSequence text, int start, int end, String prefix ) {
+        if (end - start < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /** Returns true if text[start:end] is the same as the string */
+    public static boolean equals( CharSequence text, int start, int end, String s ) {
+        return end - start == s.length() && startsWith(text, start, end, s);
+    }
+
+    /** Returns the first index of the string inside of text[start:end] or -1 if it isn't found */
+    public static int indexOf( CharSequence text, int start, int end, String s ) {
+        int last = end - s.length();
+        for (int i = start; i <= last; i++) {
+            if (startsWith(text, i, end, s))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Returns the first index of the character inside of text[start:end] or -1 if it isn't found */
+    public static int indexOf( CharSequence text, int start, int end, char c ) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /** Returns true if text[start:end] is empty or only contains white space */
+    public static boolean isBlank( CharSequence text, int start, int end ) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+}
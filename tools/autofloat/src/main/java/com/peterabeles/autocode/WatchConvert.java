@@ -0,0 +1,332 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps running after the initial conversion and converts a file again as soon as it's saved. This avoids
+ * starting a new JVM and searching the entire directory tree each time a single file is modified. The rules
+ * stay compiled and the JIT stays warm, so a file is typically converted a few milliseconds after it's saved.
+ * If a file is deleted then the files generated from it are deleted too. In incremental mode the manifest is
+ * kept up to date, so the next incremental run doesn't need to convert the files again.
+ *
+ * <pre>
+ * var watch = new WatchConvert(new RecursiveConvert(converter));
+ * watch.addDirectory(new File("src"));
+ * watch.run(); // blocks until close() is called
+ * </pre>
+ *
+ * Events come from an {@link EventSource}, which uses a {@link WatchService} by default.
+ *
+ * @author Peter Abeles
+ */
+public class WatchConvert implements Closeable {
+    private final RecursiveConvert convert;
+    private final EventSource events;
+
+    /**
+     * How long it waits for more events after a file has changed, in milliseconds. Editors often write to a
+     * file in several steps and this prevents a half written file from being converted.
+     */
+    private long quietPeriod = 20;
+
+    // Directories being watched and where their output goes
+    private final Map<Path, Directory> directories = new HashMap<>();
+    // Root directories which were added by the user
+    private final List<Directory> roots = new ArrayList<>();
+
+    public WatchConvert( RecursiveConvert convert ) throws IOException {
+        this(convert, new FileSystemEvents());
+    }
+
+    public WatchConvert( RecursiveConvert convert, EventSource events ) {
+        this.convert = convert;
+        this.events = events;
+    }
+
+    /**
+     * Converts all files in the directory and starts watching it. Output is written to the same directory.
+     */
+    public void addDirectory( File inputDirectory ) throws IOException {
+        addDirectory(inputDirectory, inputDirectory);
+    }
+
+    /**
+     * Converts all files in the directory and starts watching it and all of its children.
+     *
+     * @param inputDirectory Directory containing the files which are to be converted
+     * @param outputDirectory Directory the converted files are written to
+     */
+    public void addDirectory( File inputDirectory, File outputDirectory ) throws IOException {
+        convert.process(inputDirectory, outputDirectory);
+        var root = new Directory(inputDirectory.toPath().toAbsolutePath(), outputDirectory, null);
+        roots.add(root);
+        register(root, null);
+    }
+
+    /**
+     * Registers the directory and all of its children with the event source. Hidden directories and directories
+     * which are skipped by an exclude glob aren't registered.
+     *
+     * @param changed If not null then every file inside the directories is added to it
+     */
+    private void register( Directory directory, Map<Path, Directory> changed ) throws IOException {
+        events.register(directory.input);
+        directories.put(directory.input, directory);
+
+        File[] files = directory.input.toFile().listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (isWatched(directory, f))
+                    register(directory.child(f.getName()), changed);
+            } else if (changed != null && f.isFile()) {
+                changed.put(f.toPath(), directory);
+            }
+        }
+    }
+
+    /**
+     * Waits for files to change and converts them. Doesn't return until {@link #close()} is called, the event
+     * source is closed, or the thread is interrupted. If a file fails to convert the error is printed and it
+     * keeps on watching.
+     */
+    public void run() throws IOException {
+        try {
+            List<Event> batch;
+            while ((batch = events.take()) != null) {
+                // Something changed. Wait a little bit longer for the editor to finish writing
+                Map<Path, Directory> changed = new LinkedHashMap<>();
+                boolean overflow = handle(batch, changed);
+                while ((batch = events.poll(quietPeriod)) != null) {
+                    overflow |= handle(batch, changed);
+                }
+
+                if (overflow) {
+                    // Events were lost. The only way to be sure everything is up to date is to convert all of it
+                    for (Directory root : roots) {
+                        convertDirectory(root);
+                    }
+                    continue;
+                }
+
+                update(changed);
+                System.out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds all the files in the events to the map of changed files
+     *
+     * @return true if events were lost
+     */
+    private boolean handle( List<Event> batch, Map<Path, Directory> changed ) throws IOException {
+        boolean overflow = false;
+        for (Event event : batch) {
+            if (event.kind == Event.Kind.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Directory directory = directories.get(event.path.getParent());
+            if (directory == null)
+                continue;
+            File file = event.path.toFile();
+            if (event.kind == Event.Kind.CREATED && file.isDirectory()) {
+                // Watch the new directory and convert anything which was copied into it
+                if (isWatched(directory, file))
+                    register(directory.child(file.getName()), changed);
+                continue;
+            }
+            if (event.kind == Event.Kind.DELETED) {
+                // Stop tracking the directory and everything inside of it
+                directories.keySet().removeIf(p -> p.startsWith(event.path));
+            }
+            changed.put(event.path, directory);
+        }
+        return overflow;
+    }
+
+    /**
+     * Checks to see if a directory inside of a watched directory should be watched too
+     */
+    private boolean isWatched( Directory parent, File child ) {
+        Path relative = parent.root.input.relativize(parent.input.resolve(child.getName()));
+        return !child.isHidden() && !convert.isExcluded(relative);
+    }
+
+    /**
+     * Updates the output of every file which changed. Files are grouped by the root directory they are in.
+     */
+    private void update( Map<Path, Directory> changed ) {
+        Map<Directory, List<File>> byRoot = new LinkedHashMap<>();
+        for (Map.Entry<Path, Directory> e : changed.entrySet()) {
+            byRoot.computeIfAbsent(e.getValue().root, k -> new ArrayList<>()).add(e.getKey().toFile());
+        }
+        for (Map.Entry<Directory, List<File>> e : byRoot.entrySet()) {
+            Directory root = e.getKey();
+            try {
+                convert.update(root.input.toFile(), root.output, e.getValue());
+            } catch (Exception ex) {
+                // The failures have already been printed
+                System.out.println(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Converts everything inside the root and watches any directories which were missed. Failures are printed
+     * so that it can keep on watching.
+     */
+    private void convertDirectory( Directory root ) {
+        try {
+            convert.process(root.input.toFile(), root.output);
+            register(root, null);
+        } catch (RuntimeException | IOException e) {
+            System.out.println("\n\n\nCode generation failed! " + root.input);
+            e.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Stops watching. If {@link #run()} is blocked in another thread it will return.
+     */
+    @Override public void close() throws IOException {
+        events.close();
+    }
+
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * How long it waits for more events after a file has changed, in milliseconds
+     */
+    public void setQuietPeriod( long quietPeriod ) {
+        if (quietPeriod < 0)
+            throw new IllegalArgumentException("Quiet period can't be negative");
+        this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Provides events for files which change inside of registered directories
+     */
+    public interface EventSource extends Closeable {
+        /** Starts watching the directory, but not the directories inside of it */
+        void register( Path directory ) throws IOException;
+
+        /** Waits until there are events. Returns null once it has been closed */
+        List<Event> take() throws InterruptedException;
+
+        /** Waits up to the timeout, in milliseconds, for events. Returns null if there are none or it's closed */
+        List<Event> poll( long timeout ) throws InterruptedException;
+    }
+
+    /** A file or directory which changed */
+    public static class Event {
+        public enum Kind {CREATED, MODIFIED, DELETED, OVERFLOW}
+
+        public final Kind kind;
+        /** The file or directory which changed. For OVERFLOW it's the directory events were lost in, if known */
+        public final Path path;
+
+        public Event( Kind kind, Path path ) {
+            this.kind = kind;
+            this.path = path;
+        }
+    }
+
+    /** Events from the file system using a {@link WatchService} */
+    public static class FileSystemEvents implements EventSource {
+        private final WatchService watcher;
+        // Directory which each key is watching
+        private final Map<WatchKey, Path> keys = new HashMap<>();
+
+        public FileSystemEvents() throws IOException {
+            watcher = FileSystems.getDefault().newWatchService();
+        }
+
+        @Override public void register( Path directory ) throws IOException {
+            keys.put(directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+        }
+
+        @Override public List<Event> take() throws InterruptedException {
+            try {
+                return toEvents(watcher.take());
+            } catch (ClosedWatchServiceException e) {
+                return null;
+            }
+        }
+
+        @Override public List<Event> poll( long timeout ) throws InterruptedException {
+            try {
+                WatchKey key = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+                return key == null ? null : toEvents(key);
+            } catch (ClosedWatchServiceException e) {
+                return null;
+            }
+        }
+
+        private List<Event> toEvents( WatchKey key ) {
+            Path directory = keys.get(key);
+            List<Event> events = new ArrayList<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    events.add(new Event(Event.Kind.OVERFLOW, directory));
+                } else if (directory != null) {
+                    Event.Kind kind = event.kind() == ENTRY_CREATE ? Event.Kind.CREATED :
+                            event.kind() == ENTRY_DELETE ? Event.Kind.DELETED : Event.Kind.MODIFIED;
+                    events.add(new Event(kind, directory.resolve((Path)event.context())));
+                }
+            }
+            // The directory was deleted
+            if (!key.reset())
+                keys.remove(key);
+            return events;
+        }
+
+        @Override public void close() throws IOException {
+            watcher.close();
+        }
+    }
+
+    /** A directory being watched and the directory its output is written to */
+    private static class Directory {
+        final Path input;
+        final File output;
+        // The directory which was added by the user that this one is inside of
+        final Directory root;
+
+        Directory( Path input, File output, Directory root ) {
+            this.input = input;
+            this.output = output;
+            this.root = root == null ? this : root;
+        }
+
+        Directory child( String name ) {
+            return new Directory(input.resolve(name), new File(output, name), root);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestAutoFloatProcessor {
+    /**
+     * Compiles an annotated class and sees if the 32-bit version is generated and compiled too. There's no
+     * source path, the same as with Gradle, so the source is found using the option.
+     */
+    @Test void generateDuringCompile() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File source = new File(root, "src/foo/Moo_F64.java");
+            writeMoo(source);
+            // Not annotated so it should be ignored
+            FileUtils.write(new File(root, "src/foo/Boo_F64.java"), "package foo;\n\npublic class Boo_F64 {}\n",
+                    StandardCharsets.UTF_8);
+
+            String option = "-A" + AutoFloatProcessor.OPTION_SOURCEPATH + "=" +
+                    new File(root, "missing").getPath() + File.pathSeparator + new File(root, "src").getPath();
+            assertEquals(0, compile(root, List.of(option), source, new File(root, "src/foo/Boo_F64.java")));
+
+            String generated = FileUtils.readFileToString(new File(root, "generated/foo/Moo_F32.java"),
+                    StandardCharsets.UTF_8);
+            assertTrue(generated.contains("public class Moo_F32"));
+            assertTrue(generated.contains("public float a = 1.5f;"));
+            assertTrue(generated.contains("return (float)Math.sqrt(a);"));
+            // Characters which aren't ASCII should have the same encoding
+            assertTrue(generated.contains("// Größe"));
+            assertTrue(new File(root, "classes/foo/Moo_F32.class").exists());
+            assertFalse(new File(root, "generated/foo/Boo_F32.java").exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Without the option the source comes from the compiler on Java 18 or newer. On older versions there's no
+     * way to find it without a source path, which should be an error that says how to fix it.
+     */
+    @Test void sourceFromCompiler() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File source = new File(root, "src/foo/Moo_F64.java");
+            writeMoo(source);
+
+            var errors = new ByteArrayOutputStream();
+            int result = compile(root, List.of(), errors, source);
+            if (Runtime.version().feature() >= 18) {
+                assertEquals(0, result);
+                assertTrue(new File(root, "classes/foo/Moo_F32.class").exists());
+            } else {
+                assertNotEquals(0, result);
+                assertTrue(errors.toString(StandardCharsets.UTF_8).contains(AutoFloatProcessor.OPTION_SOURCEPATH));
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * The annotation can only be used on 64-bit classes which are at the top level
+     */
+    @Test void nestedClassIsError() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File source = new File(root, "src/foo/Moo_F64.java");
+            FileUtils.write(source, "package foo;\n\nimport com.peterabeles.autocode.GenerateFloat;\n\n" +
+                    "public class Moo_F64 {\n\t@GenerateFloat static class Inner_F64 {}\n}\n", StandardCharsets.UTF_8);
+
+            assertNotEquals(0, compile(root, List.of(), source));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static void writeMoo( File source ) throws IOException {
+        FileUtils.write(source, "package foo;\n\nimport com.peterabeles.autocode.GenerateFloat;\n\n" +
+                "// Größe\n@GenerateFloat\npublic class Moo_F64 {\n\tpublic double a = 1.5;\n" +
+                "\tpublic double sqrt() { return Math.sqrt(a); }\n}\n", StandardCharsets.UTF_8);
+    }
+
+    private static int compile( File root, List<String> options, File... sources ) {
+        return compile(root, options, new ByteArrayOutputStream(), sources);
+    }
+
+    /**
+     * Compiles the sources without a source path
+     */
+    private static int compile( File root, List<String> options, ByteArrayOutputStream errors, File... sources ) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        File classes = new File(root, "classes");
+        File generated = new File(root, "generated");
+        assertTrue(classes.mkdirs());
+        assertTrue(generated.mkdirs());
+
+        List<String> args = new ArrayList<>(options);
+        args.addAll(List.of("-classpath", System.getProperty("java.class.path"), "-encoding", "UTF-8",
+                "-processor", AutoFloatProcessor.class.getName(),
+                "-d", classes.getPath(), "-s", generated.getPath()));
+        for (File source : sources) {
+            args.add(source.getPath());
+        }
+        return compiler.run(null, null, errors, args.toArray(new String[0]));
+    }
+}
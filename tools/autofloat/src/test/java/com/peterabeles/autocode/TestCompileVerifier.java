@@ -0,0 +1,107 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestCompileVerifier {
+    /**
+     * Errors should be found in the generated code and reported with the line in the original file. Classes in
+     * other batches need to be found on the source path.
+     */
+    @Test void verify() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            FileUtils.write(new File(input, "foo/A_F64.java"), "package foo;\n\npublic class A_F64 {\n" +
+                    "\tpublic B_F64 b;\n\tpublic double a = Double.MIN_NORMAL;\n}\n", StandardCharsets.UTF_8);
+            FileUtils.write(new File(input, "foo/B_F64.java"), "package foo;\n\npublic class B_F64 {\n" +
+                    "\tpublic double sum( A_F64 a ) { return a.a + 2.0; }\n}\n", StandardCharsets.UTF_8);
+
+            // javax.annotation.Generated isn't part of the JDK any more
+            File stubs = new File(root, "stubs");
+            FileUtils.write(new File(stubs, "javax/annotation/Generated.java"),
+                    "package javax.annotation;\npublic @interface Generated { String[] value(); }\n",
+                    StandardCharsets.UTF_8);
+
+            var converter32 = new ConvertFile32From64(true);
+            var converterInt = new ConvertFile32From64(Language.JAVA, TargetProfile.I32);
+            converter32.markAsAutoGenerated = true;
+            converterInt.markAsAutoGenerated = true;
+            var alg = new RecursiveConvert(converter32);
+            alg.addTarget("_I32", converterInt);
+            alg.process(input);
+
+            var verifier = new CompileVerifier();
+            verifier.addSourcepath(input);
+            verifier.addSourcepath(stubs);
+            verifier.setBatchSize(1);
+            verifier.setThreads(2);
+            List<CompileVerifier.Failure> failures = verifier.verify(List.of(
+                    source(input, "A_F32", "A_F64"), source(input, "B_F32", "B_F64"),
+                    source(input, "A_I32", "A_F64"), source(input, "B_I32", "B_F64")));
+
+            // Integer doesn't have MIN_NORMAL
+            assertEquals(1, failures.size());
+            CompileVerifier.Failure f = failures.get(0);
+            assertEquals("A_I32.java", f.generated.getName());
+            assertEquals("A_F64.java", f.original.getName());
+            assertEquals(5, f.originalLine);
+            // import and @Generated were added
+            assertEquals(7, f.line);
+            assertTrue(f.toString().startsWith(f.original.getPath() + ":5: error:"));
+
+            // The same error should cause RecursiveConvert to fail
+            verifier = new CompileVerifier();
+            verifier.addSourcepath(stubs);
+            alg.setVerifier(verifier);
+            assertThrows(RuntimeException.class, () -> alg.process(input));
+            alg.clearTargets();
+            alg.process(input);
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test void lineMap() {
+        String original = "package foo;\n\nimport a.B;\n\npublic class A_F64 {\n}\n";
+        var converter = new ConvertFile32From64(true);
+        converter.markAsAutoGenerated = true;
+        String generated = converter.convert(original, "A_F64", "A_F32");
+        int[] map = CompileVerifier.lineMap(original, generated);
+        String[] linesOriginal = original.split("\n", -1);
+        String[] linesGenerated = generated.split("\n", -1);
+        assertEquals(linesOriginal.length + 2, linesGenerated.length);
+        for (int i = 0; i < linesGenerated.length; i++) {
+            String line = linesGenerated[i];
+            if (line.contains("Generated"))
+                continue;
+            assertEquals(linesOriginal[map[i]].replace("F64", "F32"), line);
+        }
+
+        // Nothing was added so the lines are the same
+        map = CompileVerifier.lineMap(original, original);
+        for (int i = 0; i < map.length; i++) {
+            assertEquals(i, map[i]);
+        }
+    }
+
+    private static CompileVerifier.Source source( File directory, String generated, String original ) {
+        return new CompileVerifier.Source(new File(directory, "foo/" + generated + ".java"),
+                new File(directory, "foo/" + original + ".java"));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestCompiledRules {
+    @Test void requiredLiteral() {
+        assertEquals("double", CompiledRules.requiredLiteral("double"));
+        assertEquals("MyConstants", CompiledRules.requiredLiteral("MyConstants.EPS"));
+        assertEquals("/**/double", CompiledRules.requiredLiteral("/\\*\\*/double"));
+        assertEquals("_F64", CompiledRules.requiredLiteral("\\b_F64"));
+        assertNull(CompiledRules.requiredLiteral("a|b"));
+        assertNull(CompiledRules.requiredLiteral("x*"));
+        assertNull(CompiledRules.requiredLiteral("\\x41"));
+        assertNull(CompiledRules.requiredLiteral(""));
+    }
+
+    @Test void canModify() {
+        CompiledRules alg = new ConvertFile32From64(true).compiledRules();
+
+        assertFalse(alg.alwaysApply);
+        assertFalse(alg.canModify("foo"));
+        assertFalse(alg.canModify("a.b"));
+        assertFalse(alg.canModify("x=(Math.cos(y));"));
+        assertTrue(alg.canModify("double"));
+        assertTrue(alg.canModify("Box_F64"));
+        assertTrue(alg.canModify("Math.cos(y)"));
+        assertTrue(alg.canModify("x=1.5;"));
+        assertTrue(alg.canModify("FIXED_DOUBLE"));
+    }
+
+    /**
+     * Rules need to be applied in the order they were specified since one can depend on another
+     */
+    @Test void apply_order() {
+        var converter = new ConvertFile32From64(true);
+        converter.replacePattern("foo", "FIXED_DOUBLE");
+        CompiledRules alg = converter.compiledRules();
+
+        assertEquals("float", alg.apply("double"));
+        assertEquals("/**/double", alg.apply("foo"));
+        assertEquals("(float)Math.exp(2.0f);", alg.apply("Math.exp(2.0);"));
+        assertEquals("1.5e-4f*x", alg.apply("1.5e-4*x"));
+
+        // no modification and the same instance should be returned
+        String input = "nothing";
+        assertSame(input, alg.apply(input));
+    }
+
+    /**
+     * Math functions with a float overload should not be cast and other functions should use the starts with rules
+     */
+    @Test void mathFunctions() {
+        var converter = new ConvertFile32From64(true);
+        converter.replaceMathFunction("sqrt", "FastMath.sqrt");
+        CompiledRules alg = converter.compiledRules();
+
+        assertEquals("Math.abs(a)", alg.apply("Math.abs(a)"));
+        assertEquals("-Math.max(a,1.0f)", alg.apply("-Math.max(a,1.0)"));
+        assertEquals("Math.fma(a,b,c);", alg.apply("Math.fma(a,b,c);"));
+        assertEquals("(float)Math.exp(a)", alg.apply("Math.exp(a)"));
+        assertEquals("(float)Math.PI", alg.apply("Math.PI"));
+        assertEquals("(float)Math.absolute(a)", alg.apply("Math.absolute(a)"));
+        assertEquals("FastMath.sqrt(a)", alg.apply("Math.sqrt(a)"));
+        // Only applies to the start of a word
+        assertEquals("a=Math.abs(b)", alg.apply("a=Math.abs(b)"));
+        assertEquals("Math.abs(a)", alg.apply("Math.abs(a)", false));
+
+        // Removing them all should go back to casting everything
+        converter.clearMathFunctions();
+        assertEquals("(float)Math.abs(a)", converter.compiledRules().apply("Math.abs(a)"));
+    }
+
+    /**
+     * Adding a rule after it has been compiled should cause it to be compiled again
+     */
+    @Test void addRuleAfterCompiled() {
+        var converter = new ConvertFile32From64(true);
+        assertEquals("foo", converter.compiledRules().apply("foo"));
+        converter.replacePattern("foo", "bar");
+        assertEquals("bar", converter.compiledRules().apply("foo"));
+    }
+}
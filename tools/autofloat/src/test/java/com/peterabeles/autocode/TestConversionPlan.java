@@ -0,0 +1,120 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestConversionPlan {
+    /**
+     * The plan should only change when a rule or setting changes
+     */
+    @Test void createPlan_reused() {
+        var converter = new ConvertFile32From64(true);
+        ConversionPlan plan = converter.createPlan();
+        assertSame(plan, converter.createPlan());
+
+        converter.markAsAutoGenerated = true;
+        ConversionPlan planMarked = converter.createPlan();
+        assertNotSame(plan, planMarked);
+        assertTrue(planMarked.isMarkAsAutoGenerated());
+        assertFalse(plan.isMarkAsAutoGenerated());
+
+        converter.replacePattern("foo", "bar");
+        assertNotSame(planMarked, converter.createPlan());
+    }
+
+    /**
+     * Have many threads use the same plan at once with files that have different customizations
+     */
+    @Test void sharedAcrossThreads() throws Exception {
+        ConversionPlan plan = new ConvertFile32From64(true).createPlan();
+
+        List<String> inputs = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String ignore = i%2 == 0 ? "//CUSTOM ignore Foo_F64\n" : "";
+            inputs.add(ignore + "public class A_F64 {\n\tFoo_F64 a" + i + ";\n\tdouble b = " + i + ".5;\n}\n");
+            expected.add(plan.createContext().convert(inputs.get(i), "A_F64", "A_F32").toString());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int trial = 0; trial < 10; trial++) {
+                for (String input : inputs) {
+                    futures.add(pool.submit(() -> convert(plan, input)));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(expected.get(i%inputs.size()), futures.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(expected.get(0).contains("Foo_F64 a0"));
+        assertTrue(expected.get(1).contains("Foo_F32 a1"));
+    }
+
+    /**
+     * Streaming mode should produce the same output no matter where the chunks are broken
+     */
+    @Test void processStreaming_sameAsMemory() throws IOException {
+        String input = "/*\n * Copyright double 1.0\n */\npackage foo;\n\nimport bar.Stuff_F64;\n\n" +
+                "public class A_F64<T> {\n" +
+                "\tString s = \"double 1.0 in a long string which will cross chunks\";\n" +
+                "\t/* double 2.0 inside a block comment that is also long */\n" +
+                "\tdouble a = 2.0*Math.cos(1.0); // double 3.0\n" +
+                "//NOFILTER double b = 3.0;\n" +
+                "\tIgnored_F64 c = Math.sin(0.5); Stuff_F64 d;\n" +
+                "}\n//CUSTOM ignore Ignored_F64\n";
+
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File inputFile = new File(root, "A_F64.java");
+            File outputFile = new File(root, "A_F32.java");
+            FileUtils.write(inputFile, input, StandardCharsets.UTF_8);
+
+            for (boolean marked : new boolean[]{false, true}) {
+                var converter = new ConvertFile32From64(true);
+                converter.markAsAutoGenerated = marked;
+                String expected = convert(converter.createPlan(), input);
+
+                for (int size = 4; size < 80; size += 3) {
+                    converter.setStreamChunkSize(size);
+                    ConversionPlan plan = converter.createPlan();
+                    assertEquals(size, plan.getStreamChunkSize());
+                    Files.deleteIfExists(outputFile.toPath());
+                    assertTrue(plan.processStreaming(inputFile, outputFile));
+                    assertEquals(expected, FileUtils.readFileToString(outputFile, StandardCharsets.UTF_8));
+                    // Output didn't change so it shouldn't be written to again
+                    assertFalse(plan.processStreaming(inputFile, outputFile));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static String convert( ConversionPlan plan, String input ) throws IOException {
+        return plan.createContext().convert(input, "A_F64", "A_F32").toString();
+    }
+}
@@ -15,6 +15,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author Peter Abeles
@@ -42,6 +44,27 @@ public class TestConvertFile32From64 {
         assertEquals(expected.length, found.size());
     }
 
+    @Test
+    void readIntoTokens() {
+        String text = "  double\tfoo=\"a b\";\n";
+        var spans = new TokenSpans();
+        ConvertFile32From64.readIntoTokens(text, spans);
+
+        var expected = new String[]{"  ", "double", "\t", "foo=", "\"", "a", " ", "b", "\"", ";", "\n"};
+        assertEquals(expected.length, spans.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], spans.get(text, i));
+        }
+
+        // Text read in from a file is stored as bytes and should produce the same tokens
+        var source = new SourceText(text.getBytes(StandardCharsets.ISO_8859_1));
+        ConvertFile32From64.readIntoTokens(source, spans);
+        assertEquals(expected.length, spans.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], spans.get(source, i));
+        }
+    }
+
     /**
      * Adds a custom ignore toa file and sees if it is handled correctly
      */
@@ -144,6 +167,210 @@ public class TestConvertFile32From64 {
         }
     }
 
+    /**
+     * Marking it as generated is done in memory before it's written. Characters which are not ASCII
+     * should be copied over without modification.
+     */
+    @Test
+    void markAsAutoGenerated_nonAscii() throws IOException {
+        String input = """
+                package dummy;
+
+                import foo.Bar;
+
+                /** Résumé of double */
+                public class DummyCode_F64 {
+                \tdouble café = 1.5;
+                }
+                """;
+
+        String expected = """
+                package dummy;
+
+                import javax.annotation.Generated;
+                import foo.Bar;
+
+                /** Résumé of float */
+                @Generated("dummy.DummyCode_F64")
+                public class DummyCode_F32 {
+                \tfloat café = 1.5f;
+                }
+                """;
+
+        File fileInput = new File("DummyCode_F64.java");
+        File fileExpected = new File("DummyCode_F32.java");
+
+        try {
+            var alg = new ConvertFile32From64(true);
+            alg.markAsAutoGenerated = true;
+
+            FileUtils.write(fileInput, input, StandardCharsets.UTF_8);
+
+            alg.process(fileInput, fileExpected);
+            String found = FileUtils.readFileToString(fileExpected, StandardCharsets.UTF_8);
+
+            assertEquals(expected, found);
+        } finally {
+            fileInput.delete();
+            fileExpected.delete();
+        }
+    }
+
+    /**
+     * Convert text in memory. Class names are passed in instead of coming from the file name
+     */
+    @Test
+    void convert_inMemory() {
+        String input = """
+                package dummy;
+
+                public class Foo_F64<T> {
+                \tdouble a = Math.cos(0.5);
+                }
+                """;
+
+        String expected = """
+                package dummy;
+
+                public class Bar_F32<T> {
+                \tfloat a = (float)Math.cos(0.5f);
+                }
+                """;
+
+        var alg = new ConvertFile32From64(true);
+        assertEquals(expected, alg.convert(input, "Foo_F64", "Bar_F32"));
+        // Do it again to make sure there is no state left over
+        assertEquals(expected, alg.convert(new StringBuilder(input), "Foo_F64", "Bar_F32"));
+
+        // Nothing can be found to mark it as generated
+        alg.markAsAutoGenerated = true;
+        assertThrows(IllegalArgumentException.class, () -> alg.convert("double a;", "Foo_F64", "Bar_F32"));
+    }
+
+    /**
+     * Quotes inside of character literals, text blocks, and comments used to confuse it and cause strings to
+     * be modified or code to be skipped
+     */
+    @Test
+    void convert_literalsAndComments() {
+        String input = "public class Foo_F64 {\n" +
+                "\tchar c = '\"'; double a = 1.5;\n" +
+                "\tString s = \"\"\"\n\t\tdouble \" 2.5\n\t\t\"\"\";\n" +
+                "\t// \" double 3.5\n" +
+                "\tString t = \"/* double 4.5\"; double b = 5.5;\n" +
+                "}\n";
+
+        String expected = "public class Bar_F32 {\n" +
+                "\tchar c = '\"'; float a = 1.5f;\n" +
+                "\tString s = \"\"\"\n\t\tdouble \" 2.5\n\t\t\"\"\";\n" +
+                "\t// \" float 3.5f\n" +
+                "\tString t = \"/* double 4.5\"; float b = 5.5f;\n" +
+                "}\n";
+
+        var alg = new ConvertFile32From64(true);
+        assertEquals(expected, alg.convert(input, "Foo_F64", "Bar_F32"));
+    }
+
+    /**
+     * Convert into integer types. Literals should be rewritten and Math functions cast to the new type
+     */
+    @Test
+    void convert_integralProfiles() {
+        String input = """
+                public class Foo_F64 {
+                	double[] a = new double[]{1.0, 2.00, 1.5e3, 7., 8.0d};
+                	Double b = Double.parseDouble("3") + Math.abs(-4.0); // 0.5 "4.5"
+                }
+                """;
+
+        String expected = """
+                public class Foo_I32 {
+                	int[] a = new int[]{1, 2, 1500, 7, 8};
+                	Integer b = Integer.parseInt("3") + Math.abs(-4); // 0.5 "4.5"
+                }
+                """;
+
+        var alg = new ConvertFile32From64(Language.JAVA, TargetProfile.I32);
+        assertEquals(expected, alg.convert(input, "Foo_F64", "Foo_I32"));
+
+        alg = new ConvertFile32From64(Language.JAVA, TargetProfile.I64);
+        assertEquals(expected.replace("int", "long").replace("Integer", "Long").replace("parseInt", "parseLong")
+                .replace("_I32", "_I64"), alg.convert(input, "Foo_F64", "Foo_I64"));
+
+        // The float profile should be the same as the defaults
+        assertEquals(new ConvertFile32From64(true).convert(input, "Foo_F64", "Foo_F32"),
+                new ConvertFile32From64(Language.JAVA, TargetProfile.F32).convert(input, "Foo_F64", "Foo_F32"));
+    }
+
+    /**
+     * A literal in code which isn't a whole number can't be an integer and it shouldn't be truncated
+     */
+    @Test
+    void convert_integralProfiles_fraction() {
+        for (String literal : new String[]{"0.5", ".5", "1.5e-3", "1.25e1", "3.0e9"}) {
+            String input = "public class Foo_F64 {\n\tdouble a = 2*" + literal + ";\n}\n";
+            var alg = new ConvertFile32From64(Language.JAVA, TargetProfile.I32);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> alg.convert(input, "Foo_F64", "Foo_I32"));
+            assertTrue(e.getMessage().contains(literal), e.getMessage());
+            assertTrue(e.getMessage().contains("Foo_F64.java"), e.getMessage());
+        }
+
+        // Too large to be an int but not a long
+        String input = "public class Foo_F64 {\n\tdouble a = 3.0e9;\n}\n";
+        assertEquals("public class Foo_I64 {\n\tlong a = 3000000000L;\n}\n",
+                new ConvertFile32From64(Language.JAVA, TargetProfile.I64).convert(input, "Foo_F64", "Foo_I64"));
+    }
+
+    /**
+     * Accumulators should stay as doubles and be cast when they are read
+     */
+    @Test
+    void convert_accumulator() {
+        String input = """
+                //CUSTOM accumulator sum
+                public class Foo_F64 {
+                \tdouble dot(double[] a, double[] b) {
+                \t\tdouble sum = 0.0;
+                \t\tfor (int i = 0; i < a.length; i++) {
+                \t\t\tsum += a[i]*b[i];
+                \t\t}
+                \t\tsum = sum*0.5 + this.sum;
+                \t\tdouble c = sum/a.length;
+                \t\tdouble mean = this.sum/a.length;
+                \t\tthis.sum += mean;
+                \t\tdouble v = other.sum + Foo_F64.sum*items[i + 1].sum;
+                \t\tother.sum = v + get(other.sum).sum;
+                \t\tfoo(this.other.sum, (other.sum), new Foo_F64().sum, other.sum(v));
+                \t\treturn Math.abs(sum) + sum(c) + other.sum + this.sum(mean);
+                \t}
+                }
+                """;
+
+        String expected = """
+                //CUSTOM accumulator sum
+                public class Foo_F32 {
+                \tfloat dot(float[] a, float[] b) {
+                \t\tdouble sum = 0.0f;
+                \t\tfor (int i = 0; i < a.length; i++) {
+                \t\t\tsum += a[i]*b[i];
+                \t\t}
+                \t\tsum = sum*0.5f + this.sum;
+                \t\tfloat c = (float)sum/a.length;
+                \t\tfloat mean = (float)this.sum/a.length;
+                \t\tthis.sum += mean;
+                \t\tfloat v = (float)other.sum + (float)Foo_F32.sum*(float)items[i + 1].sum;
+                \t\tother.sum = v + get(other.sum).sum;
+                \t\tfoo((float)this.other.sum, ((float)other.sum), (float)new Foo_F32().sum, other.sum(v));
+                \t\treturn Math.abs((float)sum) + sum(c) + (float)other.sum + this.sum(mean);
+                \t}
+                }
+                """;
+
+        var alg = new ConvertFile32From64(true);
+        assertEquals(expected, alg.convert(input, "Foo_F64", "Foo_F32"));
+    }
+
     File createFile(String text) {
         try {
             File file = File.createTempFile("auto", "txt");
@@ -0,0 +1,290 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestRecursiveConvert {
+    /**
+     * Converting in parallel should produce the same files as converting in a single thread
+     */
+    @Test void concurrent_sameAsSingle() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            for (int i = 0; i < 20; i++) {
+                File dir = new File(input, i%2 == 0 ? "a" : "b/c");
+                writeClass(new File(dir, "Code" + i + "_F64.java"), "Code" + i + "_F64");
+            }
+
+            var single = new RecursiveConvert(new ConvertFile32From64(true));
+            single.process(input, new File(root, "single"));
+
+            var concurrent = new RecursiveConvert(new ConvertFile32From64(true));
+            concurrent.setThreads(4);
+            concurrent.process(input, new File(root, "concurrent"));
+
+            for (int i = 0; i < 20; i++) {
+                String path = (i%2 == 0 ? "a" : "b/c") + "/Code" + i + "_F32.java";
+                String expected = FileUtils.readFileToString(new File(root, "single/" + path), StandardCharsets.UTF_8);
+                String found = FileUtils.readFileToString(new File(root, "concurrent/" + path), StandardCharsets.UTF_8);
+                assertTrue(expected.contains("float"));
+                assertEquals(expected, found);
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Every file that fails should be reported and the other files should still be converted
+     */
+    @Test void concurrent_allFailuresReported() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            writeClass(new File(input, "Good_F64.java"), "Good_F64");
+            // The class name is shorter than the file name, which will cause it to fail
+            writeClass(new File(input, "BadNameA_F64.java"), "A");
+            writeClass(new File(input, "BadNameB_F64.java"), "B");
+
+            var alg = new RecursiveConvert(new ConvertFile32From64(true));
+            alg.setThreads(2);
+            RuntimeException e = assertThrows(RuntimeException.class, () -> alg.process(input));
+            assertEquals(2, e.getSuppressed().length);
+            assertTrue(new File(input, "Good_F32.java").exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * In incremental mode files which haven't changed should not be written to again
+     */
+    @Test void incremental() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File output = new File(root, "output");
+            writeClass(new File(input, "A_F64.java"), "A_F64");
+            writeClass(new File(input, "b/B_F64.java"), "B_F64");
+
+            var alg = new RecursiveConvert(new ConvertFile32From64(true));
+            alg.setIncremental(true);
+            alg.process(input, output);
+            File fileA = new File(output, "A_F32.java");
+            File fileB = new File(output, "b/B_F32.java");
+            assertTrue(fileA.exists());
+            assertTrue(fileB.exists());
+            assertTrue(new File(output, ConversionManifest.DEFAULT_NAME).exists());
+
+            // Mark the outputs so that it's possible to tell if they were regenerated
+            FileUtils.write(fileA, "marked", StandardCharsets.UTF_8);
+            FileUtils.write(fileB, "marked", StandardCharsets.UTF_8);
+
+            // Nothing changed so nothing should be converted
+            alg.process(input, output);
+            assertEquals("marked", FileUtils.readFileToString(fileA, StandardCharsets.UTF_8));
+            assertEquals("marked", FileUtils.readFileToString(fileB, StandardCharsets.UTF_8));
+
+            // Only the modified file should be converted
+            FileUtils.write(new File(input, "b/B_F64.java"), "package foo;\n\npublic class B_F64 {}\n",
+                    StandardCharsets.UTF_8);
+            alg.process(input, output);
+            assertEquals("marked", FileUtils.readFileToString(fileA, StandardCharsets.UTF_8));
+            assertTrue(FileUtils.readFileToString(fileB, StandardCharsets.UTF_8).contains("B_F32"));
+
+            // Changing the rules should cause every file to be converted again
+            FileUtils.write(fileB, "marked", StandardCharsets.UTF_8);
+            var converter = new ConvertFile32From64(true);
+            converter.replacePattern("foo", "bar");
+            alg = new RecursiveConvert(converter);
+            alg.setIncremental(true);
+            alg.setThreads(2);
+            alg.process(input, output);
+            assertTrue(FileUtils.readFileToString(fileA, StandardCharsets.UTF_8).contains("package bar;"));
+            assertTrue(FileUtils.readFileToString(fileB, StandardCharsets.UTF_8).contains("package bar;"));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * If the output hasn't changed then the file should not be written to
+     */
+    @Test void outputNotWrittenIfSame() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            writeClass(new File(input, "A_F64.java"), "A_F64");
+
+            var alg = new RecursiveConvert(new ConvertFile32From64(true));
+            alg.process(input);
+            File output = new File(input, "A_F32.java");
+            assertTrue(output.setLastModified(1000));
+
+            alg.process(input);
+            assertEquals(1000, output.lastModified());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Every target should produce the same file as when it's the only target
+     */
+    @Test void multipleTargets() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            writeClass(new File(input, "A_F64.java"), "A_F64");
+            writeClass(new File(input, "b/B_F64.java"), "B_F64");
+
+            for (int threads : new int[]{1, 2}) {
+                File output = new File(root, "output" + threads);
+                var alg = new RecursiveConvert(new ConvertFile32From64(true));
+                alg.addTarget("_F16", createHalfConverter());
+                alg.setThreads(threads);
+                alg.process(input, output);
+
+                for (String name : new String[]{"A", "b/B"}) {
+                    String source = FileUtils.readFileToString(new File(input, name + "_F64.java"), StandardCharsets.UTF_8);
+                    String className = new File(name).getName();
+                    String expected32 = new ConvertFile32From64(true).convert(source, className + "_F64", className + "_F32");
+                    String expected16 = createHalfConverter().convert(source, className + "_F64", className + "_F16");
+                    assertEquals(expected32, FileUtils.readFileToString(
+                            new File(output, name + "_F32.java"), StandardCharsets.UTF_8));
+                    assertEquals(expected16, FileUtils.readFileToString(
+                            new File(output, name + "_F16.java"), StandardCharsets.UTF_8));
+                    assertTrue(expected16.contains("Half a"));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * The language should only be used for the files being converted and the converters, which belong to the
+     * caller, shouldn't be modified
+     */
+    @Test void language_convertersNotModified() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            FileUtils.write(new File(input, "A_F64.kt"), "class A_F64 {\n\tval a: Double = 1.0\n}\n",
+                    StandardCharsets.UTF_8);
+
+            var converter = new ConvertFile32From64(true);
+            var half = createHalfConverter();
+            var alg = new RecursiveConvert(converter);
+            alg.addTarget("_F16", half);
+            alg.setLanguage(Language.KOTLIN);
+            alg.process(input, new File(root, "output"));
+
+            assertTrue(new File(root, "output/A_F32.kt").exists());
+            assertTrue(new File(root, "output/A_F16.kt").exists());
+            assertEquals(Language.JAVA, converter.getLanguage());
+            assertEquals(Language.JAVA, half.getLanguage());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Nothing inside of an excluded directory should be converted
+     */
+    @Test void excludes() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File output = new File(root, "output");
+            writeClass(new File(input, "A_F64.java"), "A_F64");
+            writeClass(new File(input, "build/B_F64.java"), "B_F64");
+            writeClass(new File(input, "c/build/C_F64.java"), "C_F64");
+
+            var alg = new RecursiveConvert(new ConvertFile32From64(true));
+            alg.addExclude("build");
+            alg.process(input, output);
+            assertTrue(new File(output, "A_F32.java").exists());
+            assertFalse(new File(output, "build").exists());
+            assertFalse(new File(output, "c/build").exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Metrics should be collected for every output file and the number of times each rule was used should be counted
+     */
+    @Test void metrics() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            writeClass(new File(input, "A_F64.java"), "A_F64");
+            writeClass(new File(input, "b/B_F64.java"), "B_F64");
+
+            for (String name : new String[]{"metrics.csv", "metrics.json"}) {
+                File report = new File(root, name);
+                var alg = new RecursiveConvert(new ConvertFile32From64(true));
+                alg.addTarget("_F16", createHalfConverter());
+                alg.setThreads(2);
+                alg.setMetricsFile(report);
+                alg.process(input, new File(root, "output"));
+
+                ConversionMetrics metrics = alg.getMetrics();
+                assertEquals(4, metrics.getFiles().size());
+                for (ConversionMetrics.FileMetrics m : metrics.getFiles()) {
+                    assertEquals(new File(m.input).length(), m.bytesIn);
+                    assertEquals(new File(m.output).length(), m.bytesOut);
+                    assertTrue(m.tokens > 0);
+                    assertFalse(m.streamed);
+                }
+
+                // Each file has one "double" and one float literal
+                Map<String, Long> hits32 = metrics.getRuleHits("_F32");
+                assertEquals(2, (long)hits32.get("replace double"));
+                assertEquals(2, (long)hits32.get("float literals"));
+                assertEquals(0, (long)hits32.get("startsWith Math."));
+                assertEquals(2, (long)metrics.getRuleHits("_F16").get("replace double"));
+
+                String text = FileUtils.readFileToString(report, StandardCharsets.UTF_8);
+                if (name.endsWith(".csv")) {
+                    assertEquals(5, text.split("\n").length);
+                    String rules = FileUtils.readFileToString(ConversionMetrics.rulesFile(report), StandardCharsets.UTF_8);
+                    assertTrue(rules.contains("_F32,replace double,2\n"));
+                } else {
+                    assertTrue(text.contains("{\"target\": \"_F16\", \"rule\": \"replace double\", \"hits\": 2}"));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static ConvertFile32From64 createHalfConverter() {
+        var converter = new ConvertFile32From64(false);
+        converter.replacePattern("double", "Half");
+        converter.replacePattern("_F64", "_F16");
+        return converter;
+    }
+
+    private static void writeClass( File file, String className ) throws IOException {
+        FileUtils.write(file, "package foo;\n\npublic class " + className + " {\n\tdouble a = 1.0;\n}\n",
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestSourceFinder {
+    /**
+     * Excluded and hidden directories should be skipped and only included files returned
+     */
+    @Test void globs() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            touch(root, "A_F64.java", "notes.txt", "a/B_F64.java", "a/b/C_F64.java", "a/build/D_F64.java",
+                    "build/E_F64.java", ".git/F_F64.java", "skip/G_F64.java");
+
+            var alg = new SourceFinder();
+            alg.addInclude("*_F64.java");
+            alg.addExclude("build");
+            alg.addExclude("skip/**");
+            List<String> found = toStrings(alg.find(root.toPath()));
+            found.sort(String::compareTo);
+
+            // "skip" itself is still listed but nothing inside of it is
+            assertEquals(List.of(":A_F64.java", "a/b:C_F64.java", "a:B_F64.java", "skip:"), found);
+
+            // The same answer without listing anything
+            assertTrue(alg.isFileIncluded(Path.of("a/b/C_F64.java")));
+            assertFalse(alg.isFileIncluded(Path.of("notes.txt")));
+            assertFalse(alg.isFileIncluded(Path.of("a/build/D_F64.java")));
+            assertFalse(alg.isFileIncluded(Path.of("skip/G_F64.java")));
+            assertTrue(alg.isPathExcluded(Path.of("a/build")));
+            assertFalse(alg.isPathExcluded(Path.of("a/b")));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Parallel listing should return the same results in the same order
+     */
+    @Test void parallel_sameAsSingle() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            for (int i = 0; i < 30; i++) {
+                touch(root, "d" + i%3 + "/e" + i%5 + "/A" + i + "_F64.java");
+            }
+
+            var single = new SourceFinder();
+            var parallel = new SourceFinder();
+            parallel.setThreads(4);
+            List<String> expected = toStrings(single.find(root.toPath()));
+            assertEquals(1 + 3 + 3*5, expected.size());
+            assertEquals(expected, toStrings(parallel.find(root.toPath())));
+            assertEquals(":", expected.get(0));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Directories which haven't changed since the index was saved should not be listed again
+     */
+    @Test void index() throws IOException {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File index = new File(root, "index");
+            touch(input, "A_F64.java", "a/B_F64.java", "b/C_F64.java");
+
+            var alg = new SourceFinder();
+            alg.setRacyPeriod(0);
+            alg.loadIndex(index, input.toPath());
+            List<String> expected = toStrings(alg.find(input.toPath()));
+            assertEquals(3, alg.getListed());
+            alg.saveIndex(index, input.toPath());
+
+            alg = new SourceFinder();
+            alg.setRacyPeriod(0);
+            alg.loadIndex(index, input.toPath());
+            assertEquals(expected, toStrings(alg.find(input.toPath())));
+            assertEquals(0, alg.getListed());
+
+            // Adding a file changes the modification time. Make sure it's different even with a coarse clock
+            File dirA = new File(input, "a");
+            touch(input, "a/D_F64.java");
+            assertTrue(dirA.setLastModified(dirA.lastModified() - 10_000));
+            alg.loadIndex(index, input.toPath());
+            assertTrue(toStrings(alg.find(input.toPath())).contains("a:B_F64.java,D_F64.java"));
+            assertEquals(1, alg.getListed());
+
+            // An index for a different directory should be ignored
+            alg.loadIndex(index, root.toPath());
+            alg.find(input.toPath());
+            assertEquals(3, alg.getListed());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /** Converts each directory into "relative:file,file" with the files sorted */
+    private static List<String> toStrings( List<SourceFinder.Directory> directories ) {
+        List<String> found = new ArrayList<>();
+        for (SourceFinder.Directory d : directories) {
+            List<String> names = new ArrayList<>();
+            for (Path f : d.files) {
+                names.add(f.getFileName().toString());
+            }
+            names.sort(String::compareTo);
+            found.add(d.relative.toString().replace(File.separatorChar, '/') + ":" + String.join(",", names));
+        }
+        return found;
+    }
+
+    private static void touch( File root, String... paths ) throws IOException {
+        for (String path : paths) {
+            FileUtils.write(new File(root, path), "", StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestSourceLexer {
+    @Test void java() {
+        check(Language.JAVA, "double a=1.5e-3f+0x1E+b;",
+                "double", TokenKind.IDENTIFIER, " ", TokenKind.WHITESPACE, "a", TokenKind.IDENTIFIER,
+                "=", TokenKind.OPERATOR, "1.5e-3f", TokenKind.NUMBER, "+", TokenKind.OPERATOR,
+                "0x1E", TokenKind.NUMBER, "+", TokenKind.OPERATOR, "b", TokenKind.IDENTIFIER, ";", TokenKind.OPERATOR);
+
+        check(Language.JAVA, "Math.cos(.5)",
+                "Math", TokenKind.IDENTIFIER, ".", TokenKind.OPERATOR, "cos", TokenKind.IDENTIFIER,
+                "(", TokenKind.OPERATOR, ".5", TokenKind.NUMBER, ")", TokenKind.OPERATOR);
+    }
+
+    @Test void commentsAndLiterals() {
+        check(Language.JAVA, "'\"'/*\"*/x// \"\n",
+                "'\"'", TokenKind.CHARACTER, "/*\"*/", TokenKind.COMMENT, "x", TokenKind.IDENTIFIER,
+                "// \"", TokenKind.COMMENT, "\n", TokenKind.WHITESPACE);
+
+        check(Language.JAVA, "\"/* \\\" */\"+'\\''",
+                "\"/* \\\" */\"", TokenKind.STRING, "+", TokenKind.OPERATOR, "'\\''", TokenKind.CHARACTER);
+
+        // Unclosed strings end at the line break
+        check(Language.JAVA, "\"abc\nx",
+                "\"abc", TokenKind.STRING, "\n", TokenKind.WHITESPACE, "x", TokenKind.IDENTIFIER);
+    }
+
+    @Test void javaTextBlock() {
+        check(Language.JAVA, "\"\"\"\n a \" \\\"\"\" b\n\"\"\";",
+                "\"\"\"\n a \" \\\"\"\" b\n\"\"\"", TokenKind.STRING, ";", TokenKind.OPERATOR);
+    }
+
+    @Test void kotlin() {
+        // Comments can be nested
+        check(Language.KOTLIN, "/* a /* b */ c */x",
+                "/* a /* b */ c */", TokenKind.COMMENT, "x", TokenKind.IDENTIFIER);
+
+        // Templates can contain strings and raw strings can end with extra quotes
+        check(Language.KOTLIN, "\"${a[\"}\"]}\" \"\"\"a\\\"\"\"\"",
+                "\"${a[\"}\"]}\"", TokenKind.STRING, " ", TokenKind.WHITESPACE, "\"\"\"a\\\"\"\"\"", TokenKind.STRING);
+
+        check(Language.KOTLIN, "`a b`()",
+                "`a b`", TokenKind.IDENTIFIER, "()", TokenKind.OPERATOR);
+    }
+
+    /**
+     * Tokenizes the text and compares it against pairs of the expected token and its kind
+     */
+    private static void check( Language language, String text, Object... expected ) {
+        var tokens = new TokenSpans();
+        new SourceLexer(language).tokenize(text, tokens);
+
+        assertEquals(expected.length/2, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expected[i*2], tokens.get(text, i));
+            assertEquals(expected[i*2 + 1], tokens.kind(i));
+        }
+    }
+}
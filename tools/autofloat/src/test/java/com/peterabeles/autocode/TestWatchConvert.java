@@ -0,0 +1,199 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles.autocode;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestWatchConvert {
+    /**
+     * Files should be converted when added or modified, including inside new directories, and the generated
+     * files removed when the input is deleted
+     */
+    @Test void convertWhenModified() throws Exception {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File output = new File(root, "output");
+            write(new File(input, "A_F64.java"), "A_F64", "1.0");
+
+            var events = new QueueEvents();
+            var watch = new WatchConvert(new RecursiveConvert(new ConvertFile32From64(true)), events);
+            watch.addDirectory(input, output);
+            File fileA = new File(output, "A_F32.java");
+            assertTrue(read(fileA).contains("1.0f"));
+            assertTrue(events.registered.contains(input.toPath().toAbsolutePath()));
+
+            write(new File(input, "A_F64.java"), "A_F64", "2.0");
+            events.add(WatchConvert.Event.Kind.MODIFIED, new File(input, "A_F64.java"));
+            watch.run();
+            assertTrue(read(fileA).contains("2.0f"));
+
+            // Only the new directory is reported. The file inside of it needs to be found
+            write(new File(input, "b/B_F64.java"), "B_F64", "3.0");
+            events.add(WatchConvert.Event.Kind.CREATED, new File(input, "b"));
+            watch.run();
+            File fileB = new File(output, "b/B_F32.java");
+            assertTrue(read(fileB).contains("3.0f"));
+            assertTrue(events.registered.contains(new File(input, "b").toPath().toAbsolutePath()));
+
+            // Editors often delete then create when saving. It should be converted and not deleted
+            write(new File(input, "A_F64.java"), "A_F64", "4.0");
+            events.add(WatchConvert.Event.Kind.DELETED, new File(input, "A_F64.java"));
+            events.add(WatchConvert.Event.Kind.CREATED, new File(input, "A_F64.java"));
+            watch.run();
+            assertTrue(read(fileA).contains("4.0f"));
+
+            assertTrue(new File(input, "A_F64.java").delete());
+            events.add(WatchConvert.Event.Kind.DELETED, new File(input, "A_F64.java"));
+            watch.run();
+            assertFalse(fileA.exists());
+
+            // Everything generated from a deleted directory should be removed
+            FileUtils.deleteDirectory(new File(input, "b"));
+            events.add(WatchConvert.Event.Kind.DELETED, new File(input, "b"));
+            watch.run();
+            assertFalse(fileB.exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * In incremental mode the manifest should be updated so that the next run doesn't convert the files again
+     */
+    @Test void incremental_manifestUpdated() throws Exception {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File output = new File(root, "output");
+            write(new File(input, "A_F64.java"), "A_F64", "1.0");
+            write(new File(input, "b/B_F64.java"), "B_F64", "2.0");
+
+            var convert = new RecursiveConvert(new ConvertFile32From64(true));
+            convert.setIncremental(true);
+            var events = new QueueEvents();
+            var watch = new WatchConvert(convert, events);
+            watch.addDirectory(input, output);
+
+            write(new File(input, "b/B_F64.java"), "B_F64", "3.0");
+            events.add(WatchConvert.Event.Kind.MODIFIED, new File(input, "b/B_F64.java"));
+            watch.run();
+            File fileA = new File(output, "A_F32.java");
+            File fileB = new File(output, "b/B_F32.java");
+            assertTrue(read(fileB).contains("3.0f"));
+
+            // Neither file has changed since it was converted, so neither should be written to
+            FileUtils.write(fileA, "marked", StandardCharsets.UTF_8);
+            FileUtils.write(fileB, "marked", StandardCharsets.UTF_8);
+            convert.process(input, output);
+            assertEquals("marked", read(fileA));
+            assertEquals("marked", read(fileB));
+
+            // A deleted file should be removed from the manifest
+            assertTrue(new File(input, "b/B_F64.java").delete());
+            events.add(WatchConvert.Event.Kind.DELETED, new File(input, "b/B_F64.java"));
+            watch.run();
+            assertFalse(read(new File(output, ConversionManifest.DEFAULT_NAME)).contains("B_F64"));
+            assertTrue(read(new File(output, ConversionManifest.DEFAULT_NAME)).contains("A_F64"));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Files in excluded directories are skipped by process() and should be skipped when watching too
+     */
+    @Test void excludedDirectory() throws Exception {
+        File root = Files.createTempDirectory("autofloat").toFile();
+        try {
+            File input = new File(root, "input");
+            File output = new File(root, "output");
+            write(new File(input, "A_F64.java"), "A_F64", "1.0");
+            write(new File(input, "build/C_F64.java"), "C_F64", "2.0");
+
+            var convert = new RecursiveConvert(new ConvertFile32From64(true));
+            convert.addExclude("build");
+            var events = new QueueEvents();
+            var watch = new WatchConvert(convert, events);
+            watch.addDirectory(input, output);
+            assertTrue(new File(output, "A_F32.java").exists());
+            assertFalse(new File(output, "build/C_F32.java").exists());
+            assertFalse(events.registered.contains(new File(input, "build").toPath().toAbsolutePath()));
+
+            // A file in the excluded directory changed
+            write(new File(input, "build/C_F64.java"), "C_F64", "3.0");
+            events.add(WatchConvert.Event.Kind.MODIFIED, new File(input, "build/C_F64.java"));
+            watch.run();
+            assertFalse(new File(output, "build/C_F32.java").exists());
+
+            // A new excluded directory inside of another directory
+            write(new File(input, "b/build/D_F64.java"), "D_F64", "4.0");
+            write(new File(input, "b/B_F64.java"), "B_F64", "5.0");
+            events.add(WatchConvert.Event.Kind.CREATED, new File(input, "b"));
+            watch.run();
+            assertTrue(new File(output, "b/B_F32.java").exists());
+            assertFalse(new File(output, "b/build/D_F32.java").exists());
+            assertFalse(events.registered.contains(new File(input, "b/build").toPath().toAbsolutePath()));
+
+            // Calling update directly should skip it too
+            assertEquals(0, convert.update(input, output, List.of(new File(input, "b/build/D_F64.java"))));
+            assertFalse(new File(output, "b/build/D_F32.java").exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static String read( File file ) throws IOException {
+        return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+    }
+
+    private static void write( File file, String className, String value ) throws IOException {
+        FileUtils.write(file, "package foo;\n\npublic class " + className + " {\n\tdouble a = " + value + ";\n}\n",
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Events are added by the test. Once they have all been handled it acts like it was closed, so
+     * {@link WatchConvert#run()} returns without any waiting.
+     */
+    private static class QueueEvents implements WatchConvert.EventSource {
+        final Deque<List<WatchConvert.Event>> queue = new ArrayDeque<>();
+        final List<Path> registered = new ArrayList<>();
+
+        void add( WatchConvert.Event.Kind kind, File file ) {
+            queue.add(List.of(new WatchConvert.Event(kind, file.toPath().toAbsolutePath())));
+        }
+
+        @Override public void register( Path directory ) {
+            registered.add(directory);
+        }
+
+        @Override public List<WatchConvert.Event> take() {
+            return queue.poll();
+        }
+
+        @Override public List<WatchConvert.Event> poll( long timeout ) {
+            return queue.poll();
+        }
+
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the structure at the top of a Java file in a single pass. The location of the package, the first import,
+ * existing @Generated annotations, and the top level type declaration are found. Comments, strings, and
+ * anything inside of parentheses or braces are skipped, so the word "class" inside a comment or an annotation
+ * won't confuse it. It stops once the top level type has been found, so the body of the class is never looked at.
+ *
+ * <pre>
+ * var header = new JavaHeaderAnalyzer();
+ * if (!header.analyze(text))
+ *     throw new IOException("No class");
+ * int line = header.lineOf(header.typeKeyword);
+ * </pre>
+ *
+ * @author Peter Abeles
+ */
+public class JavaHeaderAnalyzer {
+    /** Fully qualified name of the annotation used to mark code as generated */
+    public static final String GENERATED = "javax.annotation.Generated";
+
+    /** Location of the "package" keyword. -1 if there is none or it's missing a ';' */
+    public int packageStart;
+    /** Name of the package. Empty if there is none */
+    public String packageName = "";
+    /**
+     * Start of the first non-empty line after the package statement. This is where imports should go if there
+     * are none. 0 if there is no package.
+     */
+    public int afterPackage;
+    /** Location of the first "import" keyword. -1 if there are none */
+    public int firstImport;
+    /** Location of the "import" keyword which imports {@link #GENERATED}. -1 if it's not imported */
+    public int generatedImport;
+    /** Location of the '@' in each @Generated annotation in front of the type declaration */
+    public final List<Integer> generatedAnnotations = new ArrayList<>();
+    /** Location of the keyword which declares the top level type, e.g. "class". -1 if not found */
+    public int typeKeyword;
+    /** Start of the line which has {@link #typeKeyword} on it. -1 if not found */
+    public int typeLineStart;
+    /** The keyword which declares the top level type, e.g. "class" or "interface". null if not found */
+    public String typeKind;
+    /** Name of the top level type. null if not found */
+    public String typeName;
+
+    // Start of every line that was looked at
+    private final List<Integer> lineStarts = new ArrayList<>();
+
+    // The text being analyzed
+    private CharSequence text;
+    // Length of the text
+    private int end;
+
+    /**
+     * Analyzes the text. All the results from a previous call are discarded.
+     *
+     * @param text Contents of a Java file
+     * @return true if the top level type was found
+     */
+    public boolean analyze( CharSequence text ) {
+        reset();
+        this.text = text;
+        this.end = text.length();
+
+        // Number of parentheses and braces the current location is inside of
+        int depth = 0;
+        int i = 0;
+        while (i < end) {
+            char c = text.charAt(i);
+            char next = i + 1 < end ? text.charAt(i + 1) : 0;
+
+            if (c == '\n' || c == '\r') {
+                i = skipLineBreak(i);
+            } else if (c == '/' && next == '/') {
+                i = findLineEnd(i + 2);
+            } else if (c == '/' && next == '*') {
+                i = skipBlockComment(i + 2);
+            } else if (c == '"' || c == '\'') {
+                i = skipLiteral(i);
+            } else if (c == '(' || c == '{' || c == '[') {
+                depth++;
+                i++;
+            } else if (c == ')' || c == '}' || c == ']') {
+                depth--;
+                i++;
+            } else if (depth == 0 && c == '@') {
+                int nameStart = i + 1;
+                int nameEnd = findNameEnd(nameStart);
+                String name = text.subSequence(nameStart, nameEnd).toString();
+                if (name.equals("interface")) {
+                    // annotation type, e.g. @interface Foo
+                    if (foundType(nameStart, nameEnd))
+                        return true;
+                } else if (name.equals("Generated") || name.equals(GENERATED)) {
+                    generatedAnnotations.add(i);
+                }
+                i = nameEnd;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int wordEnd = findWordEnd(i);
+                if (depth == 0) {
+                    i = handleWord(i, wordEnd);
+                    if (i < 0)
+                        return true;
+                } else {
+                    i = wordEnd;
+                }
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private void reset() {
+        packageStart = -1;
+        packageName = "";
+        afterPackage = 0;
+        firstImport = -1;
+        generatedImport = -1;
+        generatedAnnotations.clear();
+        typeKeyword = -1;
+        typeLineStart = -1;
+        typeKind = null;
+        typeName = null;
+        lineStarts.clear();
+        lineStarts.add(0);
+    }
+
+    /**
+     * Handles a word outside of any parentheses or braces. Package and import statements are skipped over
+     * entirely so that the names in them aren't mistaken for keywords.
+     *
+     * @return Where to continue from or -1 if it's the declaration of the top level type
+     */
+    private int handleWord( int start, int end ) {
+        String word = text.subSequence(start, end).toString();
+        switch (word) {
+            case "package": {
+                int statementEnd = findStatementEnd(end);
+                if (packageStart < 0 && statementEnd <= this.end) {
+                    packageStart = start;
+                    packageName = removeWhitespace(end, statementEnd - 1);
+                    afterPackage = findAfterPackage(start);
+                }
+                return statementEnd;
+            }
+
+            case "import": {
+                int statementEnd = findStatementEnd(end);
+                if (firstImport < 0)
+                    firstImport = start;
+                if (removeWhitespace(end, Math.min(statementEnd - 1, this.end)).equals(GENERATED))
+                    generatedImport = start;
+                return statementEnd;
+            }
+
+            case "class":
+            case "interface":
+            case "enum":
+            case "record":
+                return foundType(start, end) ? -1 : end;
+
+            default:
+                return end;
+        }
+    }
+
+    /**
+     * Checks to see if the keyword is followed by a name and if so saves the type declaration
+     */
+    private boolean foundType( int keywordStart, int keywordEnd ) {
+        int nameStart = skipWhitespace(keywordEnd);
+        if (nameStart >= end || !Character.isJavaIdentifierStart(text.charAt(nameStart)))
+            return false;
+        typeKeyword = keywordStart;
+        typeKind = text.subSequence(keywordStart, keywordEnd).toString();
+        typeName = text.subSequence(nameStart, findWordEnd(nameStart)).toString();
+        typeLineStart = lineStarts.get(lineStarts.size() - 1);
+        return true;
+    }
+
+    /**
+     * Returns the line number, starting from zero, of a location in the text. Only lines up to the type
+     * declaration are looked at, so the location must come before the end of the type's name.
+     */
+    public int lineOf( int offset ) {
+        int low = 0, high = lineStarts.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1)/2;
+            if (lineStarts.get(mid) <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index just after the ';' at the end of the statement or one past the end of the text if
+     * there is none.
+     * Line breaks are recorded along the way.
+     */
+    private int findStatementEnd( int i ) {
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == ';')
+                return i + 1;
+            if (c == '\n' || c == '\r') {
+                i = skipLineBreak(i);
+            } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '/') {
+                i = findLineEnd(i + 2);
+            } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+                i = skipBlockComment(i + 2);
+            } else {
+                i++;
+            }
+        }
+        return end + 1;
+    }
+
+    /** Mimics how imports have always been placed when there are none. The line after the package */
+    private int findAfterPackage( int i ) {
+        while (i < end && !isNewLine(text.charAt(i)))
+            i++;
+        while (i < end && isNewLine(text.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private String removeWhitespace( int start, int end ) {
+        var builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c))
+                builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /** Skips over a line break and records the start of the next line */
+    private int skipLineBreak( int i ) {
+        if (text.charAt(i) == '\r' && i + 1 < end && text.charAt(i + 1) == '\n')
+            i++;
+        lineStarts.add(i + 1);
+        return i + 1;
+    }
+
+    private int findLineEnd( int i ) {
+        while (i < end && !isNewLine(text.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private int skipBlockComment( int i ) {
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '*' && i + 1 < end && text.charAt(i + 1) == '/')
+                return i + 2;
+            if (isNewLine(c))
+                i = skipLineBreak(i);
+            else
+                i++;
+        }
+        return end;
+    }
+
+    /**
+     * Skips over a string, text block, or character literal which starts at 'i'
+     */
+    private int skipLiteral( int i ) {
+        char quote = text.charAt(i);
+        boolean textBlock = quote == '"' && i + 2 < end && text.charAt(i + 1) == '"' && text.charAt(i + 2) == '"';
+        i += textBlock ? 3 : 1;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (textBlock && c == '"' && i + 2 < end && text.charAt(i + 1) == '"' && text.charAt(i + 2) == '"') {
+                return i + 3;
+            } else if (!textBlock && c == quote) {
+                return i + 1;
+            } else if (isNewLine(c)) {
+                if (!textBlock)
+                    return i;
+                i = skipLineBreak(i);
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /** Skips white space without recording line breaks, so the caller must not continue from the returned index */
+    private int skipWhitespace( int i ) {
+        while (i < end && Character.isWhitespace(text.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private int findWordEnd( int i ) {
+        while (i < end && Character.isJavaIdentifierPart(text.charAt(i)))
+            i++;
+        return i;
+    }
+
+    /** Finds the end of a name which can have dots in it, e.g. javax.annotation.Generated */
+    private int findNameEnd( int i ) {
+        while (i < end && (Character.isJavaIdentifierPart(text.charAt(i)) || text.charAt(i) == '.'))
+            i++;
+        return i;
+    }
+
+    private static boolean isNewLine( char c ) {
+        return c == '\n' || c == '\r';
+    }
+}
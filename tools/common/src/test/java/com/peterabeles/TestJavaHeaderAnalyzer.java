@@ -0,0 +1,74 @@
+/*
+ * Auto64to32F is released to Public Domain or MIT License. Either maybe used.
+ */
+
+package com.peterabeles;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Peter Abeles
+ */
+public class TestJavaHeaderAnalyzer {
+    @Test void everything() {
+        String text = """
+                /*
+                 * class Copyright
+                 */
+                package foo.bar;
+
+                import javax.annotation.Generated;
+                import java.util.List; // class
+                \r
+                /** Going to mention the word class here to mess things up */
+                @SuppressWarnings({"class Fake", "interface"})
+                @Generated("foo.bar.Thing_F64")
+                public final class Thing_F32<T> {
+                    class Inner {}
+                }
+                """;
+
+        var alg = new JavaHeaderAnalyzer();
+        assertTrue(alg.analyze(text));
+        assertEquals(text.indexOf("package"), alg.packageStart);
+        assertEquals("foo.bar", alg.packageName);
+        assertEquals(text.indexOf("import"), alg.afterPackage);
+        assertEquals(text.indexOf("import"), alg.firstImport);
+        assertEquals(text.indexOf("import"), alg.generatedImport);
+        assertEquals(1, alg.generatedAnnotations.size());
+        assertEquals(text.indexOf("@Generated"), (int)alg.generatedAnnotations.get(0));
+        assertEquals("class", alg.typeKind);
+        assertEquals("Thing_F32", alg.typeName);
+        assertEquals(text.indexOf("class Thing"), alg.typeKeyword);
+        assertEquals(text.indexOf("public final"), alg.typeLineStart);
+
+        // "\r\n" is a single line break
+        assertEquals(0, alg.lineOf(0));
+        assertEquals(3, alg.lineOf(alg.packageStart));
+        assertEquals(11, alg.lineOf(alg.typeKeyword));
+    }
+
+    @Test void noPackageOrImports() {
+        var alg = new JavaHeaderAnalyzer();
+        assertTrue(alg.analyze("// interface\npublic enum Foo { A }"));
+        assertEquals(-1, alg.packageStart);
+        assertEquals("", alg.packageName);
+        assertEquals(0, alg.afterPackage);
+        assertEquals(-1, alg.firstImport);
+        assertEquals(-1, alg.generatedImport);
+        assertEquals("enum", alg.typeKind);
+        assertEquals("Foo", alg.typeName);
+        assertEquals(1, alg.lineOf(alg.typeKeyword));
+
+        assertTrue(alg.analyze("public @interface Foo {}"));
+        assertEquals("interface", alg.typeKind);
+
+        // It should be reset between calls
+        assertFalse(alg.analyze("package a;\n\nint x = 2;"));
+        assertEquals("a", alg.packageName);
+        assertNull(alg.typeName);
+        assertEquals(-1, alg.typeKeyword);
+    }
+}